@@ -2,6 +2,7 @@ plugins {
     scala
     application
     id("antlr")
+    id("me.champeau.jmh") version "0.7.3"
 }
 
 repositories {
@@ -11,6 +12,7 @@ repositories {
 dependencies {
     implementation("org.scala-lang:scala3-library_3:3.3.3")
     implementation("org.antlr:antlr4-runtime:4.13.1")
+    implementation("org.ow2.asm:asm:9.8")
     antlr("org.antlr:antlr4:4.13.1")
 
     testImplementation("org.junit.jupiter:junit-jupiter:5.10.0")
@@ -63,6 +65,11 @@ tasks.named<JavaExec>("run") {
     }
 }
 
+// --- BENCHMARK CONFIGURATION ---
+jmh {
+    jmhVersion.set("1.37")
+}
+
 // --- TEST CONFIGURATION ---
 tasks.test {
     useJUnitPlatform()
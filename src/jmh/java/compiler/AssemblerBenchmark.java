@@ -0,0 +1,79 @@
+package compiler;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.*;
+import org.openjdk.jmh.annotations.*;
+
+import compiler.svm.*;
+
+/**
+ * End-to-end latency from generated code to program termination:
+ * the old path (write .asm, read it back, lex/parse with SVMLexer/SVMParser)
+ * against the in-memory {@link Assembler}, and against running a precompiled
+ * {@link ObjectFile}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AssemblerBenchmark {
+
+	@Param({"foolExamples/quicksort.fool", "foolExamples/bankloan.fool", "foolExamples/prova.fool"})
+	public String source;
+
+	private Code code;
+	private Path asmFile;
+	private Path objectFile;
+	private PrintStream stdout;
+
+	@Setup
+	public void setup() throws IOException {
+		code = Benchmarks.compile(Benchmarks.read(source));
+		asmFile = Files.createTempFile("bench", ".asm");
+		objectFile = Files.createTempFile("bench", ".svm");
+		Assembler assembler = new Assembler();
+		assembler.assembly(code);
+		ObjectFile.write(objectFile, assembler.code, assembler.size(), null);
+		stdout = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream())); // silence "print"
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		System.setOut(stdout);
+		Files.deleteIfExists(asmFile);
+		Files.deleteIfExists(objectFile);
+	}
+
+	@Benchmark
+	public int[] fileRoundTrip() throws IOException {
+		BufferedWriter out = new BufferedWriter(new FileWriter(asmFile.toFile()));
+		code.print(out);
+		out.close();
+		SVMLexer lexerASM = new SVMLexer(CharStreams.fromFileName(asmFile.toString()));
+		SVMParser parserASM = new SVMParser(new CommonTokenStream(lexerASM));
+		parserASM.assembly();
+		new ExecuteVM(parserASM.code).cpu();
+		return parserASM.code;
+	}
+
+	@Benchmark
+	public int[] inMemory() {
+		int[] assembledCode = Assembler.assemble(code);
+		new ExecuteVM(assembledCode).cpu();
+		return assembledCode;
+	}
+
+	@Benchmark
+	public int[] precompiled() throws IOException {
+		int[] loadedCode = ObjectFile.read(objectFile).code;
+		new ExecuteVM(loadedCode).cpu();
+		return loadedCode;
+	}
+}
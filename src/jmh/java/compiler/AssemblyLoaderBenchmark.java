@@ -0,0 +1,60 @@
+package compiler;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.*;
+import org.openjdk.jmh.annotations.*;
+
+import compiler.lib.*;
+import compiler.svm.*;
+
+/**
+ * Loading time of a large .asm file (the assembly of the program of
+ * {@link ParserBenchmark#expressionProgram} with n functions): lexing and parsing it with
+ * SVMLexer/SVMParser against the single-pass {@link AssemblyLoader} on the memory-mapped file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xss512m"})
+public class AssemblyLoaderBenchmark {
+
+	@Param({"1000", "10000"})
+	public int functions;
+
+	private Path asmFile;
+
+	@Setup
+	public void setup() throws IOException {
+		Code code = Benchmarks.compile(ParserBenchmark.expressionProgram(functions));
+		asmFile = Files.createTempFile("bench", ".asm");
+		try (BufferedWriter out = Files.newBufferedWriter(asmFile)) {
+			code.print(out);
+		}
+		if (!Arrays.equals(svmParser(), loader()))
+			throw new IllegalStateException("AssemblyLoader and SVMParser disagree");
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		Files.deleteIfExists(asmFile);
+	}
+
+	@Benchmark
+	public int[] svmParser() throws IOException {
+		SVMParser parser = new SVMParser(new CommonTokenStream(new SVMLexer(CharStreams.fromPath(asmFile))));
+		FOOLlib.parse(parser, SVMParser::assembly);
+		return parser.code;
+	}
+
+	@Benchmark
+	public int[] loader() throws IOException {
+		return AssemblyLoader.load(asmFile);
+	}
+}
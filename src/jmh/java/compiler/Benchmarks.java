@@ -0,0 +1,65 @@
+package compiler;
+
+import java.io.IOException;
+import java.util.function.Consumer;
+
+import org.antlr.v4.runtime.*;
+
+import compiler.lib.*;
+import compiler.svm.*;
+
+/**
+ * Front end and code generation shared by the setup of the benchmarks.
+ */
+final class Benchmarks {
+
+	private Benchmarks() {}
+
+	/**
+	 * Returns the source of a benchmark program given by file name (a {@code source} parameter),
+	 * decoded as by the compiler.
+	 */
+	static String read(String file) throws IOException {
+		return CharStreams.fromFileName(file).toString();
+	}
+
+	/**
+	 * Parses and checks a program, returning its AST enriched by the symbol table.
+	 *
+	 * @throws IllegalStateException if the program has front-end errors
+	 */
+	static Node check(String source) {
+		FOOLLexer lexer = new FOOLLexer(CharStreams.fromString(source));
+		FOOLParser parser = new FOOLParser(new CommonTokenStream(lexer));
+		Node ast = new ASTGenerationSTVisitor().visit(parser.prog());
+		SymbolTableASTVisitor symTableVisitor = new SymbolTableASTVisitor();
+		symTableVisitor.visit(ast);
+		CompilationContext context = new CompilationContext();
+		try {
+			new TypeCheckEASTVisitor(context).visit(ast);
+		} catch (Exception e) {
+			throw new IllegalStateException("Benchmark program does not type check", e);
+		}
+		int errors = lexer.lexicalErrors + parser.getNumberOfSyntaxErrors() + symTableVisitor.stErrors + context.typeErrors;
+		if (errors > 0) throw new IllegalStateException("Benchmark program has " + errors + " front-end errors");
+		return ast;
+	}
+
+	/**
+	 * Checks a program and generates its code, with a code generator configured by options
+	 * (e.g. {@code generator -> generator.cacheFrames = false}).
+	 */
+	static Code compile(String source, Consumer<CodeGenerationASTVisitor> options) {
+		Node ast = check(source);
+		CodeGenerationASTVisitor generator = new CodeGenerationASTVisitor();
+		options.accept(generator);
+		return generator.visit(ast);
+	}
+
+	/**
+	 * Checks a program and generates its code with the default options.
+	 */
+	static Code compile(String source) {
+		return compile(source, generator -> {});
+	}
+}
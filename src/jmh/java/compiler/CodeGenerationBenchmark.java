@@ -0,0 +1,57 @@
+package compiler;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import compiler.lib.*;
+import compiler.svm.*;
+
+/**
+ * Scaling of code generation (and assembly printing) with the number of
+ * functions in the program: time per operation should grow linearly.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xss512m", "-Xmx4g"})
+public class CodeGenerationBenchmark {
+
+	@Param({"1000", "10000", "100000"})
+	public int functions;
+
+	private Node ast;
+
+	/**
+	 * Builds a program declaring n functions, each one calling the previous one.
+	 */
+	static String syntheticProgram(int n) {
+		StringBuilder sb = new StringBuilder("let\n");
+		sb.append("  fun f0:int (x:int) x + 1;\n");
+		for (int i = 1; i < n; i++)
+			sb.append("  fun f").append(i).append(":int (x:int) if (x <= 0) then {f").append(i-1)
+			  .append("(x) * 2} else {x - 1};\n");
+		sb.append("in print(f").append(n-1).append("(1));\n");
+		return sb.toString();
+	}
+
+	@Setup
+	public void setup() {
+		ast = Benchmarks.check(syntheticProgram(functions));
+	}
+
+	@Benchmark
+	public Code generate() {
+		return new CodeGenerationASTVisitor().visit(ast);
+	}
+
+	@Benchmark
+	public Code generateAndPrint() throws IOException {
+		Code code = new CodeGenerationASTVisitor().visit(ast);
+		code.print(Writer.nullWriter());
+		return code;
+	}
+}
@@ -0,0 +1,83 @@
+package compiler;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import compiler.svm.*;
+
+/**
+ * Method dispatch speed of {@link ExecuteVM#cpu()}: running time of a loop calling a method through
+ * a call site that sees objects of 1, 3 or 6 classes (monomorphic, polymorphic and megamorphic for
+ * the inline caches of {@code jsm}), with superinstructions (inline caches) and without them
+ * (dispatch table lookup at each call). The "hits" counter is the inline cache hits per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark {
+
+	@Param({"1", "3", "6"})
+	public int classes; // seen at the call site
+
+	@Param({"20000"})
+	public int calls;
+
+	@Param({"true", "false"})
+	public boolean superinstructions;
+
+	private int[] code;
+	private long instructions; // executed by a run, counted once in setup
+	private PrintStream stdout;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long instructions;
+		public long hits;
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		code = Assembler.assemble(Benchmarks.compile(dispatchProgram(classes, calls)), superinstructions);
+		stdout = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream())); // silence "print"
+		instructions = InterpreterBenchmark.executedInstructions(code);
+	}
+
+	@TearDown
+	public void tearDown() {
+		System.setOut(stdout);
+	}
+
+	/**
+	 * A program calling method id of n objects, of k classes in turn (S1 and its subclasses
+	 * S2..S6, each overriding id, so that the call is not devirtualized), in a tail-recursive loop.
+	 */
+	static String dispatchProgram(int k, int n) {
+		StringBuilder program = new StringBuilder("let\n  class S1 (v:int) { fun id:int () 1; }\n");
+		for (int c = 2; c <= 6; c++)
+			program.append("  class S").append(c).append(" extends S1 () { fun id:int () ").append(c).append("; }\n");
+		program.append("  fun pick:S1 (c:int)\n    ");
+		for (int c = 1; c < 6; c++) program.append("if (c == ").append(c).append(") then { new S").append(c).append("(0) } else { ");
+		program.append("new S6(0)").append(" }".repeat(5)).append(";\n");
+		program.append("  fun idOf:int (s:S1) s.id();\n")
+				.append("  fun loop:int (k:int, n:int, acc:int)\n")
+				.append("    if (n == 0) then { acc } else { loop(k, n - 1, acc + idOf(pick(1 + n - n / k * k))) };\n")
+				.append("in print(loop(").append(k).append(", ").append(n).append(", 0));\n");
+		return program.toString();
+	}
+
+	@Benchmark
+	public ExecuteVM run(Counters counters) {
+		ExecuteVM vm = new ExecuteVM(code, ExecuteVM.MAX_MEMSIZE, true);
+		vm.cpu();
+		counters.instructions += instructions;
+		counters.hits += vm.inlineCacheHits();
+		return vm;
+	}
+}
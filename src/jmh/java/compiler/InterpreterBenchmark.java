@@ -0,0 +1,86 @@
+package compiler;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import compiler.svm.*;
+
+/**
+ * Interpreter speed of {@link ExecuteVM#cpu()}: running time of an assembled program and
+ * executed SVM instructions per second (the "instructions" counter), on a list-processing
+ * example and on a synthetic arithmetic loop, with and without superinstructions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+
+	static final String LOOP = "loop";
+
+	@Param({"foolExamples/quicksort.fool", LOOP})
+	public String source;
+
+	@Param({"20000"})
+	public int iterations; // of the synthetic loop
+
+	@Param({"true", "false"})
+	public boolean superinstructions;
+
+	private int[] code;
+	private long instructions; // executed by a run, counted once in setup
+	private PrintStream stdout;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long instructions;
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		code = Assembler.assemble(Benchmarks.compile(source.equals(LOOP) ? loopProgram(iterations) : Benchmarks.read(source)), superinstructions);
+		stdout = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream())); // silence "print"
+		instructions = executedInstructions(code);
+	}
+
+	@TearDown
+	public void tearDown() {
+		System.setOut(stdout);
+	}
+
+	/**
+	 * A program running an integer arithmetic loop body over n values; the range is split
+	 * in halves, so that recursion depth (and stack size) stays logarithmic.
+	 */
+	static String loopProgram(int n) {
+		return "let\n"
+				+ "  fun loop:int (lo:int, n:int)\n"
+				+ "    if (n <= 1) then {lo * 3 - lo / 7} else {loop(lo, n / 2) + loop(lo + n / 2, n - n / 2)};\n"
+				+ "in print(loop(0, " + n + "));\n";
+	}
+
+	/**
+	 * Instructions executed by a run of the code, counted on a VM of their own, so that the
+	 * measured runs do not count them.
+	 */
+	static long executedInstructions(int[] code) {
+		ExecuteVM vm = new ExecuteVM(code, ExecuteVM.MAX_MEMSIZE, true);
+		vm.countInstructions(true);
+		vm.cpu();
+		return vm.executedInstructions();
+	}
+
+	@Benchmark
+	public ExecuteVM run(Counters counters) {
+		ExecuteVM vm = new ExecuteVM(code, ExecuteVM.MAX_MEMSIZE, true);
+		vm.cpu();
+		counters.instructions += instructions;
+		return vm;
+	}
+}
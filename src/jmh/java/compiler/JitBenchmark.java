@@ -0,0 +1,63 @@
+package compiler;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import compiler.svm.*;
+
+/**
+ * Running time of an assembled program through {@link ExecuteVM#run(JitCode)}, compared with
+ * the interpreter, on the same programs as {@link InterpreterBenchmark}. Translation to
+ * JVM bytecode is done once, in the setup, as it would be for a hot program.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JitBenchmark {
+
+	@Param({"foolExamples/quicksort.fool", InterpreterBenchmark.LOOP})
+	public String source;
+
+	@Param({"20000"})
+	public int iterations; // of the synthetic loop
+
+	private int[] code;
+	private JitCode compiled;
+	private PrintStream stdout;
+
+	@Setup
+	public void setup() throws IOException {
+		String program = source.equals(InterpreterBenchmark.LOOP)
+				? InterpreterBenchmark.loopProgram(iterations) : Benchmarks.read(source);
+		Assembler assembler = new Assembler();
+		assembler.assembly(Benchmarks.compile(program));
+		code = assembler.code;
+		compiled = JitCompiler.compile(code, assembler.labels().values());
+		stdout = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream())); // silence "print"
+	}
+
+	@TearDown
+	public void tearDown() {
+		System.setOut(stdout);
+	}
+
+	@Benchmark
+	public ExecuteVM interpreter() {
+		ExecuteVM vm = new ExecuteVM(code, ExecuteVM.MAX_MEMSIZE, true);
+		vm.cpu();
+		return vm;
+	}
+
+	@Benchmark
+	public ExecuteVM jit() {
+		ExecuteVM vm = new ExecuteVM(code, ExecuteVM.MAX_MEMSIZE, true);
+		vm.run(compiled);
+		return vm;
+	}
+}
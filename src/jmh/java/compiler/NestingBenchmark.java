@@ -0,0 +1,82 @@
+package compiler;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import compiler.svm.*;
+
+/**
+ * Cost of accessing outer frames in deeply nested functions, with the outer frame pointers cached
+ * in the frame of the function using them ({@link CodeGenerationASTVisitor#cacheFrames}) and with
+ * the static chain followed at every access: runs per second, and executed SVM instructions
+ * per second (the "instructions" counter).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NestingBenchmark {
+
+	@Param({"5", "8"})
+	public int depth;
+
+	@Param({"20000"})
+	public int iterations;
+
+	@Param({"true", "false"})
+	public boolean cacheFrames;
+
+	private int[] code;
+	private long instructions; // executed by a run, counted once in setup
+	private PrintStream stdout;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long instructions;
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		code = Assembler.assemble(Benchmarks.compile(nestedProgram(depth, iterations), generator -> generator.cacheFrames = cacheFrames));
+		stdout = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream())); // silence "print"
+		instructions = InterpreterBenchmark.executedInstructions(code);
+	}
+
+	@TearDown
+	public void tearDown() {
+		System.setOut(stdout);
+	}
+
+	/**
+	 * A program with functions f1..fd, each one declared in the previous one, the last one
+	 * running a loop of n iterations that reads the parameter of every enclosing function.
+	 */
+	static String nestedProgram(int d, int n) {
+		StringBuilder program = new StringBuilder("let\n");
+		StringBuilder sum = new StringBuilder("acc");
+		for (int l = 1; l < d; l++) {
+			program.append("fun f").append(l).append(":int (v").append(l).append(":int)\nlet\n");
+			sum.append(" + v").append(l);
+		}
+		program.append("fun f").append(d).append(":int (n:int, acc:int)\n")
+				.append("  if (n == 0) then { acc } else { f").append(d).append("(n - 1, ").append(sum).append(") };\n");
+		program.append("in f").append(d).append("(").append(n).append(", 0);\n");
+		for (int l = d-1; l > 1; l--) program.append("in f").append(l).append("(v").append(l-1).append(" + 1);\n");
+		program.append("in print(f1(1));\n");
+		return program.toString();
+	}
+
+	@Benchmark
+	public ExecuteVM run(Counters counters) {
+		ExecuteVM vm = new ExecuteVM(code, ExecuteVM.MAX_MEMSIZE, true);
+		vm.cpu();
+		counters.instructions += instructions;
+		return vm;
+	}
+}
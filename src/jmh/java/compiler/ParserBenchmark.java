@@ -0,0 +1,85 @@
+package compiler;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.openjdk.jmh.annotations.*;
+
+import compiler.lib.*;
+import compiler.svm.*;
+
+/**
+ * Parsing time of FOOLParser and SVMParser on large generated sources (a program with n functions
+ * whose bodies are long arithmetic expressions, and its assembly), with ANTLR's default LL prediction
+ * and with the two-stage strategy of {@link FOOLlib#parse} (SLL, then LL only if SLL fails).
+ * With coldDFA the prediction DFA cache, shared by all the parsers, is cleared before each parse,
+ * as for the first files compiled by a JVM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xss512m"})
+public class ParserBenchmark {
+
+	@Param({"100", "1000"})
+	public int functions;
+
+	@Param({"LL", "SLL"})
+	public String prediction;
+
+	@Param({"false", "true"})
+	public boolean coldDFA;
+
+	private List<? extends Token> foolTokens;
+	private List<? extends Token> svmTokens;
+
+	@Setup
+	public void setup() {
+		String source = expressionProgram(functions);
+		foolTokens = new FOOLLexer(CharStreams.fromString(source)).getAllTokens();
+		String assembly = Benchmarks.compile(source).toString();
+		svmTokens = new SVMLexer(CharStreams.fromString(assembly)).getAllTokens();
+	}
+
+	/**
+	 * A program declaring n functions, each one returning a long expression (with all the operators of
+	 * the left-recursive exp rule) over its parameters and a call to the previous function.
+	 */
+	static String expressionProgram(int n) {
+		StringBuilder sb = new StringBuilder("let\n");
+		sb.append("  fun f0:int (x:int, y:int) x + y;\n");
+		for (int i = 1; i < n; i++) {
+			sb.append("  fun f").append(i).append(":int (x:int, y:int)\n    ");
+			for (int t = 0; t < 8; t++)
+				sb.append("(x * ").append(t+1).append(" - y / ").append(t+2).append(") + ");
+			sb.append("(if (x <= y || !(x == ").append(i).append(") && y >= 0) then { f").append(i-1)
+			  .append("(x - 1, y + 1) } else { x * y - 1 });\n");
+		}
+		sb.append("in print(f").append(n-1).append("(3, 4));\n");
+		return sb.toString();
+	}
+
+	private <P extends Parser,T> T parse(P parser, Function<P,T> rule) {
+		if (coldDFA) parser.getInterpreter().clearDFA();
+		if (prediction.equals("SLL")) return FOOLlib.parse(parser, rule);
+		parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+		return rule.apply(parser);
+	}
+
+	@Benchmark
+	public FOOLParser.ProgContext fool() {
+		return parse(new FOOLParser(new CommonTokenStream(new ListTokenSource(foolTokens))), FOOLParser::prog);
+	}
+
+	@Benchmark
+	public int[] svm() {
+		SVMParser parser = new SVMParser(new CommonTokenStream(new ListTokenSource(svmTokens)));
+		parse(parser, SVMParser::assembly);
+		return parser.code;
+	}
+}
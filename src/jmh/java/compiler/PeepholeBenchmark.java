@@ -0,0 +1,66 @@
+package compiler;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import compiler.svm.*;
+
+/**
+ * Running time of a program with and without the {@link Peephole} optimization of the generated
+ * code, on the bundled examples and on the synthetic arithmetic loop of {@link InterpreterBenchmark}:
+ * runs per second, and executed instructions per second (the "instructions" counter).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PeepholeBenchmark {
+
+	@Param({"foolExamples/prova.fool", "foolExamples/bankloan.fool", "foolExamples/quicksort.fool", InterpreterBenchmark.LOOP})
+	public String source;
+
+	@Param({"true", "false"})
+	public boolean peephole;
+
+	@Param({"20000"})
+	public int iterations; // of the synthetic loop
+
+	private int[] code;
+	private long instructions; // executed by a run, counted once in setup
+	private PrintStream stdout;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long instructions;
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		String program = source.equals(InterpreterBenchmark.LOOP)
+				? InterpreterBenchmark.loopProgram(iterations) : Benchmarks.read(source);
+		Code generated = Benchmarks.compile(program);
+		if (peephole) new Peephole().optimize(generated);
+		code = Assembler.assemble(generated);
+		stdout = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream())); // silence "print"
+		instructions = InterpreterBenchmark.executedInstructions(code);
+	}
+
+	@TearDown
+	public void tearDown() {
+		System.setOut(stdout);
+	}
+
+	@Benchmark
+	public ExecuteVM run(Counters counters) {
+		ExecuteVM vm = new ExecuteVM(code, ExecuteVM.MAX_MEMSIZE, true);
+		vm.cpu();
+		counters.instructions += instructions;
+		return vm;
+	}
+}
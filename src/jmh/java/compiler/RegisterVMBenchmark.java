@@ -0,0 +1,78 @@
+package compiler;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import compiler.lib.*;
+import compiler.svm.*;
+
+/**
+ * Running time of a program on the register machine ({@link RegisterVM}) compared with the
+ * stack machine ({@link ExecuteVM}, with superinstructions), on the bundled examples and on the
+ * synthetic arithmetic loop of {@link InterpreterBenchmark}: runs per second, and executed
+ * instructions per second (the "instructions" counter).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegisterVMBenchmark {
+
+	@Param({"foolExamples/prova.fool", "foolExamples/bankloan.fool", "foolExamples/quicksort.fool", InterpreterBenchmark.LOOP})
+	public String source;
+
+	@Param({"20000"})
+	public int iterations; // of the synthetic loop
+
+	private int[] stackCode;
+	private int[] registerCode;
+	private long stackInstructions, registerInstructions; // executed by a run, counted once in setup
+	private PrintStream stdout;
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Counters {
+		public long instructions;
+	}
+
+	@Setup
+	public void setup() throws IOException {
+		String program = source.equals(InterpreterBenchmark.LOOP)
+				? InterpreterBenchmark.loopProgram(iterations) : Benchmarks.read(source);
+		Node ast = Benchmarks.check(program);
+		stackCode = Assembler.assemble(new CodeGenerationASTVisitor().visit(ast));
+		registerCode = new RegisterCodeGenerationASTVisitor().visit(ast).assemble();
+		stdout = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream())); // silence "print"
+		stackInstructions = InterpreterBenchmark.executedInstructions(stackCode);
+		RegisterVM vm = new RegisterVM(registerCode, ExecuteVM.MAX_MEMSIZE, true);
+		vm.countInstructions(true);
+		vm.cpu();
+		registerInstructions = vm.executedInstructions();
+	}
+
+	@TearDown
+	public void tearDown() {
+		System.setOut(stdout);
+	}
+
+	@Benchmark
+	public ExecuteVM stack(Counters counters) {
+		ExecuteVM vm = new ExecuteVM(stackCode, ExecuteVM.MAX_MEMSIZE, true);
+		vm.cpu();
+		counters.instructions += stackInstructions;
+		return vm;
+	}
+
+	@Benchmark
+	public RegisterVM register(Counters counters) {
+		RegisterVM vm = new RegisterVM(registerCode, ExecuteVM.MAX_MEMSIZE, true);
+		vm.cpu();
+		counters.instructions += registerInstructions;
+		return vm;
+	}
+}
@@ -21,11 +21,14 @@ private Map<Integer,String> labelRef = new HashMap<>();
  * PARSER RULES
  *------------------------------------------------------------------*/
    
-assembly: instruction* EOF 	{ for (Integer j: labelRef.keySet()) 
+assembly
+@init { i = 0; labelDef.clear(); labelRef.clear(); } : // parsing may start over (FOOLlib.parse)
+          instruction* EOF 	{ for (Integer j: labelRef.keySet()) 
 								code[j]=labelDef.get(labelRef.get(j)); 
 							} ;
 
-instruction : 
+instruction
+@init { if (i+2 > code.length) code = Arrays.copyOf(code, 2*code.length); } : // grow code array as needed
         PUSH n=INTEGER   {code[i++] = PUSH; 
 			              code[i++] = Integer.parseInt($n.text);}
 	  | PUSH l=LABEL    {code[i++] = PUSH; 
@@ -56,6 +59,17 @@ instruction :
 	  | STOREHP         {code[i++] = STOREHP;}   //
 	  | PRINT           {code[i++] = PRINT;}
 	  | HALT            {code[i++] = HALT;}
+	  | NEW n=INTEGER   {code[i++] = NEW;
+	                     code[i++] = Integer.parseInt($n.text);}
+	  | LOADLOCAL n=INTEGER {code[i++] = LOADLOCAL;
+	                     code[i++] = Integer.parseInt($n.text);}
+	  | HPINC           {code[i++] = HPINC;}
+	  | BRZERO l=LABEL  {code[i++] = BRZERO;
+                       labelRef.put(i++,$l.text);}
+	  | BRONE l=LABEL   {code[i++] = BRONE;
+                       labelRef.put(i++,$l.text);}
+	  | CALLMETHOD n=INTEGER {code[i++] = CALLMETHOD;
+	                     code[i++] = Integer.parseInt($n.text);}
 	  ;
 	  
 /*------------------------------------------------------------------
@@ -85,6 +99,12 @@ LOADHP	 : 'lhp' ;
 STOREHP	 : 'shp' ;	
 PRINT	 : 'print' ;	
 HALT	 : 'halt' ;	
+NEW	 : 'new' ;	
+LOADLOCAL : 'lloc' ;	// superinstructions (see Assembler)
+HPINC	 : 'ihp' ;	
+BRZERO	 : 'bzero' ;	
+BRONE	 : 'bone' ;	
+CALLMETHOD : 'jsm' ;	
  
 COL	 : ':' ;
 LABEL	 : ('a'..'z'|'A'..'Z')('a'..'z' | 'A'..'Z' | '0'..'9')* ;
@@ -31,6 +31,7 @@ public class AST {
 		final List<ParNode> parList;
 		final List<DecNode> decList;
 		final Node exp;
+		STentry entry; // set by the symbol table visitor, shared with the calls to the function
 		FunNode(String i, TypeNode rt, List<ParNode> pl, List<DecNode> dl, Node e) {
 	    	id=i; 
 	    	retType=rt; 
@@ -272,7 +273,6 @@ public class AST {
 		final List<DecNode> decList;
 		final Node exp;
 		int offset;
-		String label;
 
 		MethodNode(String i, TypeNode rt, List<ParNode> pl, List<DecNode> dl, Node e) {
 			id=i;
@@ -325,6 +325,19 @@ public class AST {
 		public <S,E extends Exception> S accept(BaseASTVisitor<S,E> visitor) throws E {return visitor.visitNode(this);}
 	}
 
+	// Read of a field outside the methods of its class: it has no syntax,
+	// it is produced by inlining methods (InliningASTVisitor)
+	public static class FieldAccessNode extends Node {
+		final Node object;   // expression whose value is the object pointer
+		final String id;
+		final int offset;    // offset of the field from the object pointer
+
+		FieldAccessNode(Node o, String i, int off) {object = o; id = i; offset = off;}
+
+		@Override
+		public <S,E extends Exception> S accept(BaseASTVisitor<S,E> visitor) throws E {return visitor.visitNode(this);}
+	}
+
 	// OBJECT-ORIENTED EXTENSION TYPES
 
 	public static class ClassTypeNode extends TypeNode {
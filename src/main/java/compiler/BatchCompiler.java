@@ -0,0 +1,159 @@
+package compiler;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Stream;
+
+/**
+ * Batch mode of {@link Test} ("--batch"): compiles, and with "--run" also runs, every given FOOL
+ * program (files, or directories searched for .fool files) in the same JVM, one task per file
+ * on a work-stealing pool ("--threads=N", all processors by default).
+ * <p>
+ * Each compilation has its own visitors and {@link CompilationContext}, while the lexer and parser
+ * DFA caches, static in the generated FOOLLexer and FOOLParser, are shared by all of them: the ATN
+ * simulation done for a file speeds up the next ones. What a file prints (diagnostics and program
+ * output) is buffered and printed at once, in the order the files were given, followed by the time
+ * taken by each phase; the batch ends with the total time per phase and the throughput in files
+ * per second.
+ * <p>
+ * Every file goes through the {@link Pipeline} of {@link Test}, and the flags of {@link Test} selecting
+ * the options of the compilation ("--no-opt", "--jit", "--register", "--mem-size=N", "--emit-asm", ...)
+ * apply to every file; any other flag is rejected. With "--cache=DIR" files compiled before with the
+ * same options are read from the {@link CompileCache}.
+ */
+public class BatchCompiler {
+
+    final Pipeline pipeline; // shared by the compilations of all the files
+
+    BatchCompiler(List<String> flags) {
+        pipeline = new Pipeline(flags);
+    }
+
+    public static void main(String[] args) throws Exception {
+        List<String> flags = new ArrayList<>();
+        List<Path> files = new ArrayList<>();
+        int threads = Runtime.getRuntime().availableProcessors();
+        Path baseDir = Paths.get(".").toAbsolutePath().normalize();
+        for (String arg : args) {
+            if (arg.startsWith("--threads=")) threads = Integer.parseInt(arg.substring("--threads=".length()));
+            else if (arg.equals("--batch") || arg.startsWith("--cache=") || arg.startsWith("--cache-size=")) continue;
+            else if (arg.startsWith("--")) flags.add(arg);
+            else {
+                Path path = baseDir.resolve(arg).normalize();
+                if (!path.startsWith(baseDir))
+                    throw new SecurityException("Access denied! You cannot exit from project folder: " + arg);
+                if (Files.isDirectory(path))
+                    try (Stream<Path> walk = Files.walk(path)) {
+                        walk.filter(p -> p.toString().endsWith(".fool")).sorted().forEach(files::add);
+                    }
+                else files.add(path);
+            }
+        }
+        String unsupported = Pipeline.unsupported(flags);
+        if (unsupported != null) {
+            System.out.println("Error: " + unsupported + " is not supported in batch mode.");
+            System.exit(1);
+        }
+        if (files.isEmpty()) {
+            System.out.println("Error: No input files.");
+            System.exit(1);
+        }
+        BatchCompiler compiler = new BatchCompiler(flags);
+        compiler.pipeline.compileCache = CompileCache.fromArgs(args);
+        compiler.compileAll(files, threads, baseDir);
+    }
+
+    void compileAll(List<Path> files, int threads, Path baseDir) {
+        PrintStream stdout = System.out;
+        ThreadOutput output = new ThreadOutput();
+        System.setOut(new PrintStream(output, true));
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long[] total = new long[Pipeline.PHASES.length];
+        int failed = 0;
+        long start = System.nanoTime();
+        try {
+            List<ForkJoinTask<Pipeline.Result>> tasks = new ArrayList<>();
+            for (Path file : files) tasks.add(pool.submit(() -> {
+                Pipeline.Result result = compile(file);
+                result.output = output.take();
+                return result;
+            }));
+            for (ForkJoinTask<Pipeline.Result> task : tasks) {
+                Pipeline.Result result = task.join();
+                stdout.print(result.output);
+                stdout.println(report(baseDir.relativize(result.file), result));
+                for (int p = 0; p < Pipeline.PHASES.length; p++) total[p] += result.nanos[p];
+                if (result.errors > 0 || result.failure != null) failed++;
+            }
+        } finally {
+            pool.shutdown();
+            System.setOut(stdout);
+        }
+        long elapsed = System.nanoTime() - start;
+        StringBuilder summary = new StringBuilder("\nCompiled " + files.size() + " files (" + failed + " failed) in "
+            + millis(elapsed) + " ms on " + threads + " threads: "
+            + String.format(Locale.ROOT, "%.1f", files.size() * 1e9 / elapsed) + " files/s.\nTotal time per phase:");
+        for (int p = 0; p < Pipeline.PHASES.length; p++)
+            if (p != Pipeline.RUN || pipeline.run) summary.append(' ').append(Pipeline.PHASES[p]).append(' ').append(millis(total[p])).append(" ms");
+        if (pipeline.compileCache != null)
+            summary.append("\nCompile cache: ").append(pipeline.compileCache.hits()).append(" hits, ").append(pipeline.compileCache.misses()).append(" misses.");
+        stdout.println(summary);
+    }
+
+    // compiles (and runs) a file, on the current thread
+    Pipeline.Result compile(Path file) {
+        Pipeline.Result result = new Pipeline.Result(file);
+        try {
+            pipeline.compile(result);
+        } catch (Throwable e) { // e.g. StackOverflowError for a deeply nested program: only this file fails
+            result.failure = e;
+        }
+        return result;
+    }
+
+    private String report(Path file, Pipeline.Result result) {
+        StringBuilder line = new StringBuilder(file.toString()).append(':');
+        for (int p = 0; p < Pipeline.PHASES.length; p++)
+            if (p != Pipeline.RUN || pipeline.run) line.append(' ').append(Pipeline.PHASES[p]).append(' ').append(millis(result.nanos[p])).append(" ms");
+        if (result.cached) line.append(" (cached)");
+        if (result.errors > 0) line.append(" (").append(result.errors).append(" front-end errors)");
+        if (result.failure != null) line.append(" (failed: ").append(result.failure).append(')');
+        return line.toString();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.2f", nanos / 1e6);
+    }
+
+    /**
+     * Target of System.out during a batch: each thread writes to its own buffer, taken
+     * when the compilation of a file ends, so that the outputs of files do not interleave.
+     */
+    private static class ThreadOutput extends OutputStream {
+        private final ThreadLocal<ByteArrayOutputStream> buffer = ThreadLocal.withInitial(ByteArrayOutputStream::new);
+
+        @Override
+        public void write(int b) {
+            buffer.get().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buffer.get().write(b, off, len);
+        }
+
+        String take() {
+            ByteArrayOutputStream b = buffer.get();
+            String s = b.toString();
+            b.reset();
+            return s;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package compiler;
+
+import java.util.*;
+import compiler.AST.*;
+import compiler.lib.*;
+
+/**
+ * Class hierarchy analysis of a whole program, for the devirtualization of method calls.
+ * <p>
+ * Classes are all declared at the beginning of the program, each one after its super-class:
+ * the hierarchy is complete before any call is compiled. A call of the method at offset o on an
+ * object of static type C may run, at run time, the method at offset o of C or of any of its
+ * subclasses; if none of them overrides it, the method is known at compile time and the call
+ * can jump directly to it (and be inlined), without reading the dispatch table of the object.
+ */
+public class ClassHierarchy {
+
+	private final Map<String,List<MethodNode>> dispatchTables = new HashMap<>(); // class id -> methods by offset
+	private final Map<String,Set<Integer>> overridden = new HashMap<>(); // class id -> offsets overridden by subclasses
+	private final Map<String,String> superClass = new HashMap<>();
+
+	/**
+	 * Builds the hierarchy of the classes in the declarations of a program.
+	 */
+	public ClassHierarchy(List<DecNode> declist) {
+		for (DecNode dec : declist) {
+			if (!(dec instanceof ClassNode)) continue;
+			ClassNode c = (ClassNode) dec;
+			List<MethodNode> dispatchTable = new ArrayList<>();
+			if (c.superId != null) {
+				superClass.put(c.id, c.superId);
+				dispatchTable.addAll(dispatchTables.get(c.superId));
+			}
+			for (MethodNode m : c.methodList) {
+				if (m.offset < dispatchTable.size()) dispatchTable.set(m.offset, m);
+				else dispatchTable.add(m.offset, m);
+				// the method overrides the one at the same offset of every ancestor having it
+				for (String a = c.superId; a != null; a = superClass.get(a))
+					if (m.offset < dispatchTables.get(a).size()) overridden.computeIfAbsent(a, k -> new HashSet<>()).add(m.offset);
+			}
+			dispatchTables.put(c.id, dispatchTable);
+		}
+	}
+
+	/**
+	 * Returns the method run by a call of the method at the given offset on an object of
+	 * static type classId, null if it depends on the class of the object (or classId is unknown).
+	 */
+	public MethodNode target(String classId, int offset) {
+		List<MethodNode> dispatchTable = dispatchTables.get(classId);
+		if (dispatchTable == null || offset >= dispatchTable.size()
+				|| overridden.getOrDefault(classId, Set.of()).contains(offset)) return null;
+		return dispatchTable.get(offset);
+	}
+
+	/**
+	 * Returns the method run by a call n, null if it is not known at compile time.
+	 */
+	public MethodNode target(ClassCallNode n) {
+		if (!(n.classEntry.type instanceof RefTypeNode)) return null;
+		return target(((RefTypeNode) n.classEntry.type).id, n.methodEntry.offset);
+	}
+}
@@ -3,314 +3,541 @@ package compiler;
 import compiler.AST.*;
 import compiler.lib.*;
 import compiler.exc.*;
+import compiler.svm.Code;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 
 import static compiler.lib.FOOLlib.*;
-import static compiler.svm.ExecuteVM.MEMSIZE;
+import static compiler.svm.Code.*;
+import static compiler.svm.SVMParser.*;
 
-public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidException> {
+public class CodeGenerationASTVisitor extends BaseASTVisitor<Code, VoidException> {
 
 	private final List<List<String>> dispatchTables = new ArrayList<>();
-
-  CodeGenerationASTVisitor() {}
-  CodeGenerationASTVisitor(boolean debug) {super(false,debug);} //enables print for debugging
+	// dispatch tables are the first thing allocated in the heap (from address 0), in class order:
+	// their addresses are known at compile time, so code does not depend on the memory size
+	private final List<Integer> dispatchTableAddresses = new ArrayList<>();
+	private int dispatchTablesSize = 0;
+	// method calls whose method is known at compile time jump directly to it (devirtualization)
+	boolean devirtualization = true;
+	private ClassHierarchy hierarchy = new ClassHierarchy(List.of());
+	private String currentClass; // class whose methods are being generated
+	int methodCalls = 0;    // compiled method calls
+	int devirtualized = 0;  // of which devirtualized
+	// calls in tail position reuse the frame of the function being generated (see tailCall)
+	boolean tailCallOptimization = true;
+	private final Map<STentry,String> funLabels = new HashMap<>();
+	private final Map<MethodNode,String> methodLabels = new HashMap<>(); // labels are not kept in the AST
+	private Node tail;      // expression in tail position, null outside function and method bodies
+	private int tailParams; // parameters of the function whose body is being generated
+	private int tailLocals; // and its local declarations
+	int tailCalls = 0;
+	// pointers to outer frames used by a function body are cached in its frame (see frameCache)
+	boolean cacheFrames = true;
+	private NavigableMap<Integer,Integer> frameSlots = new TreeMap<>(); // hops -> offset of the cached frame pointer
+	int cachedFrames = 0;
+	// results of the top-level declarations kept by a DeclarationCache, by position (null: not incremental)
+	List<DeclarationCache.Declaration> declarations;
+
+	private final CompilationContext context; // labels and code of functions of the compilation
+
+  CodeGenerationASTVisitor() {this(new CompilationContext());}
+  CodeGenerationASTVisitor(CompilationContext context) {this.context = context;}
+  CodeGenerationASTVisitor(CompilationContext context, boolean debug) {super(false,debug); this.context = context;} //enables print for debugging
 
 	@Override
-	public String visitNode(ProgLetInNode n) {
+	public Code visitNode(ProgLetInNode n) {
 		if (print) printNode(n);
-		String declCode = null;
-		for (Node dec : n.declist) declCode=nlJoin(declCode,visit(dec));
+		hierarchy = new ClassHierarchy(devirtualization ? n.declist : List.of());
+		Code declCode = null;
+		for (int i = 0; i < n.declist.size(); i++)
+			declCode=nlJoin(declCode,declarations == null ? visit(n.declist.get(i)) : visitDeclaration(n.declist.get(i), declarations.get(i)));
+		if (declarations != null) context.labelPrefix(""); // labels of the main program expression
 		return nlJoin(
-			"push 0",	
+			push(0),	
 			declCode, // generate code for declarations (allocation)			
 			visit(n.exp),
-			"halt",
-			getCode()
+			op(HALT),
+			context.getCode()
 		);
 	}
 
+	// code of a top-level declaration, generated by a previous compilation if d has it (d is then
+	// only used for the labels of the declaration and the dispatch table of the class)
+	private Code visitDeclaration(DecNode dec, DeclarationCache.Declaration d) {
+		Code functions = context.takeCode(); // functions of the previous declarations
+		if (d.code == null) {
+			context.labelPrefix(d.prefix);
+			d.code = visit(dec);
+			d.functions = context.takeCode();
+			if (dec instanceof FunNode f) d.label = funLabels.get(f.entry);
+			if (dec instanceof ClassNode c) {
+				d.methodLabels = new ArrayList<>();
+				for (MethodNode method : c.methodList) d.methodLabels.add(methodLabels.get(method));
+				d.dispatchTable = dispatchTables.get(dispatchTables.size()-1);
+			}
+		} else {
+			if (dec instanceof FunNode f) funLabels.put(f.entry, d.label);
+			if (dec instanceof ClassNode c) {
+				for (int i = 0; i < c.methodList.size(); i++) methodLabels.put(c.methodList.get(i), d.methodLabels.get(i));
+				dispatchTables.add(d.dispatchTable);
+				dispatchTableAddresses.add(dispatchTablesSize);
+				dispatchTablesSize += d.dispatchTable.size();
+			}
+		}
+		context.putCode(functions);
+		context.putCode(d.functions.copy());
+		return d.code.copy();
+	}
+
 	@Override
-	public String visitNode(ProgNode n) {
+	public Code visitNode(ProgNode n) {
 		if (print) printNode(n);
 		return nlJoin(
 			visit(n.exp),
-			"halt"
+			op(HALT)
 		);
 	}
 
 	@Override
-	public String visitNode(FunNode n) {
+	public Code visitNode(FunNode n) {
 		if (print) printNode(n,n.id);
-		String declCode = null, popDecl = null, popParl = null;
+		Code declCode = null, popDecl = null, popParl = null;
 		for (Node dec : n.decList) {
 			declCode = nlJoin(declCode,visit(dec));
-			popDecl = nlJoin(popDecl,"pop");
+			popDecl = nlJoin(popDecl,op(POP));
 		}
-		for (int i = 0; i<n.parList.size(); i++) popParl = nlJoin(popParl,"pop");
-		String funl = freshFunLabel();
-		putCode(
+		for (int i = 0; i<n.parList.size(); i++) popParl = nlJoin(popParl,op(POP));
+		NavigableMap<Integer,Integer> frames = frameCache(n.exp, n.decList.size());
+		for (int i = 0; i<frames.size(); i++) popDecl = nlJoin(popDecl,op(POP));
+		String funl = context.freshFunLabel();
+		funLabels.put(n.entry, funl);
+		context.putCode(
 			nlJoin(
-				funl+":",
-				"cfp", // set $fp to $sp value
-				"lra", // load $ra value
+				label(funl),
+				op(COPYFP), // set $fp to $sp value
+				op(LOADRA), // load $ra value
 				declCode, // generate code for local declarations (they use the new $fp!!!)
-				visit(n.exp), // generate code for function body expression
-				"stm", // set $tm to popped value (function result)
-				popDecl, // remove local declarations from stack
-				"sra", // set $ra to popped value
-				"pop", // remove Access Link from stack
+				cacheFrames(frames), // cache pointers to outer frames used by the body
+				visitBody(n.exp, n.parList.size(), n.decList.size(), frames), // generate code for function body expression
+				op(STORETM), // set $tm to popped value (function result)
+				popDecl, // remove local declarations (and cached frame pointers) from stack
+				op(STORERA), // set $ra to popped value
+				op(POP), // remove Access Link from stack
 				popParl, // remove parameters from stack
-				"sfp", // set $fp to popped value (Control Link)
-				"ltm", // load $tm value (function result)
-				"lra", // load $ra value
-				"js"  // jump to to popped address
+				op(STOREFP), // set $fp to popped value (Control Link)
+				op(LOADTM), // load $tm value (function result)
+				op(LOADRA), // load $ra value
+				op(JS)  // jump to to popped address
 			)
 		);
-		return "push "+funl;		
+		return push(funl);		
 	}
 
 	@Override
-	public String visitNode(VarNode n) {
+	public Code visitNode(VarNode n) {
 		if (print) printNode(n,n.id);
 		return visit(n.exp);
 	}
 
 	@Override
-	public String visitNode(PrintNode n) {
+	public Code visitNode(PrintNode n) {
 		if (print) printNode(n);
 		return nlJoin(
 			visit(n.exp),
-			"print"
+			op(PRINT)
 		);
 	}
 
-	@Override
-	public String visitNode(IfNode n) {
-		if (print) printNode(n);
-	 	String l1 = freshLabel();
-	 	String l2 = freshLabel();		
+	// visit of the body of a function or method, whose calls in tail position reuse its frame,
+	// with the outer frame pointers cached in it
+	private Code visitBody(Node exp, int params, int locals, NavigableMap<Integer,Integer> frames) {
+		Node outerTail = tail;
+		int outerParams = tailParams, outerLocals = tailLocals;
+		NavigableMap<Integer,Integer> outerFrames = frameSlots;
+		tail = tailCallOptimization ? exp : null;
+		tailParams = params;
+		tailLocals = locals + frames.size();
+		frameSlots = frames;
+		Code code = visit(exp);
+		tail = outerTail;
+		tailParams = outerParams;
+		tailLocals = outerLocals;
+		frameSlots = outerFrames;
+		return code;
+	}
+
+	/*
+	 * Pointers to outer frames cached by a function body exp, after its local declarations: hops -> offset.
+	 * Reaching the frame h hops up the static chain takes lfp and h lw; with the frame p <= h hops up
+	 * cached, it takes an lloc and h-p lw, saving p instructions. Caching it at function entry costs
+	 * p-q+1 instructions from the nearest cached frame q < p (or lfp), plus its pop at exit: a frame
+	 * is cached when the accesses through it (h >= p, counted statically in the body) save more.
+	 */
+	private NavigableMap<Integer,Integer> frameCache(Node exp, int locals) {
+		NavigableMap<Integer,Integer> frames = new TreeMap<>();
+		if (!cacheFrames) return frames;
+		NavigableMap<Integer,Integer> accesses = new TreeMap<>(); // hops -> number of accesses
+		countAccesses(exp, accesses);
+		int q = 0, remaining = 0;
+		for (int c : accesses.values()) remaining += c;
+		for (Map.Entry<Integer,Integer> e : accesses.entrySet()) {
+			int p = e.getKey();
+			if (p >= 2 && remaining * (p-q) > p-q+2) {
+				frames.put(p, -2-locals-frames.size());
+				q = p;
+			}
+			remaining -= e.getValue();
+		}
+		cachedFrames += frames.size();
+		return frames;
+	}
+
+	// number of accesses to outer frames in exp by hops (its nested functions have their own frames)
+	private static void countAccesses(Node n, Map<Integer,Integer> accesses) {
+		int hops = 0;
+		if (n instanceof IdNode) hops = ((IdNode) n).nl - ((IdNode) n).entry.nl;
+		if (n instanceof CallNode) hops = ((CallNode) n).nl - ((CallNode) n).entry.nl;
+		if (n instanceof ClassCallNode) hops = ((ClassCallNode) n).nestingLevel - ((ClassCallNode) n).classEntry.nl;
+		if (hops > 0) accesses.merge(hops, 1, Integer::sum);
+		for (Node c : InliningASTVisitor.children(n)) countAccesses(c, accesses);
+	}
+
+	// code pushing the cached frame pointers, each from the nearest one already pushed
+	private Code cacheFrames(NavigableMap<Integer,Integer> frames) {
+		Code code = null;
+		for (int hops : frames.keySet()) code = nlJoin(code, frame(hops, frames.headMap(hops, false)));
+		return code;
+	}
+
+	// pointer to the frame hops levels up the static chain (following hops Access Links)
+	private Code frame(int hops) {
+		return frame(hops, frameSlots);
+	}
+
+	private static Code frame(int hops, NavigableMap<Integer,Integer> frames) {
+		Map.Entry<Integer,Integer> cached = frames.floorEntry(hops);
+		Code code = cached == null ? op(LOADFP) : nlJoin(op(LOADFP), push(cached.getValue()), op(ADD), op(LOADW));
+		for (int i = cached == null ? 0 : cached.getKey(); i < hops; i++) code = nlJoin(code, op(LOADW));
+		return code;
+	}
+
+	// visit of a branch of if n, in tail position if n is
+	private Code visitBranch(IfNode n, Node branch) {
+		if (n != tail) return visit(branch);
+		tail = branch;
+		Code code = visit(branch);
+		tail = n;
+		return code;
+	}
+
+	/*
+	 * Call in tail position of the function (or method) f being generated, of the function at label with
+	 * the given number of arguments: the frame of f is replaced by the one of the called function, which
+	 * then returns directly to the caller of f, so that tail recursion runs in constant stack space.
+	 * Arguments and access link are computed on top of the stack, as in a call, then moved over the
+	 * parameters (and access link, return address, local declarations) of f, below its control link;
+	 * $ra is restored to the return address of f, and the called function is jumped to with a branch.
+	 * The new frame must not overlap the computed values (see isTailCall).
+	 */
+	private Code tailCall(Code argCode, Code alCode, String label, int args) {
+		int base = tailParams - args; // offset from $fp of the access link of the new frame
+		tailCalls++;
+		Code moves = null, pops = null;
+		for (int i = 0; i <= args; i++) moves = nlJoin(moves, op(LOADFP), push(base + i), op(ADD), op(STOREW));
+		for (int i = 0; i < base + 1 + tailLocals; i++) pops = nlJoin(pops, op(POP));
 		return nlJoin(
-			visit(n.cond),
-			"push 1",
-			"beq "+l1,
-			visit(n.el),
-			"b "+l2,
-			l1+":",
-			visit(n.th),
-			l2+":"
+			argCode, // generate code for argument expressions in reversed order
+			alCode, // access link of the called function
+			op(LOADFP), push(-1), op(ADD), op(LOADW), op(STORERA), // set $ra to the return address of f
+			moves, // move access link and arguments over the frame of f
+			pops, // remove the rest of the frame of f
+			jump(BRANCH,label) // jump to the called function (keeping $ra)
 		);
 	}
 
-	@Override
-	public String visitNode(EqualNode n) {
-		if (print) printNode(n);
-	 	String l1 = freshLabel();
-	 	String l2 = freshLabel();
+	// whether call n (with the given number of arguments) to the function at label can be a tail call:
+	// it must have at most as many arguments as the parameters, return address and declarations of f
+	private boolean isTailCall(Node n, String label, int args) {
+		return n == tail && label != null && args <= tailParams + 1 + tailLocals;
+	}
+
+	// label of a method, assigned when first needed (by a devirtualized call, or by its declaration)
+	private String methodLabel(MethodNode m) {
+		return methodLabels.computeIfAbsent(m, k -> context.freshFunLabel());
+	}
+
+	// method run by a call of the method at offset in class classId, null if chosen at run time
+	private MethodNode devirtualize(String classId, int offset) {
+		methodCalls++;
+		MethodNode target = classId != null ? hierarchy.target(classId, offset) : null;
+		if (target != null) devirtualized++;
+		return target;
+	}
+
+	private MethodNode devirtualize(ClassCallNode n) {
+		methodCalls++;
+		MethodNode target = hierarchy.target(n);
+		if (target != null) devirtualized++;
+		return target;
+	}
+
+	// code checking that the object pointer on top of the stack is not null before a devirtualized call,
+	// by loading its dispatch pointer as a call through the dispatch table would (null fails to load)
+	private static Code nullCheck() {
+		return nlJoin(op(STORETM), op(LOADTM), op(LOADTM), op(LOADW), op(POP));
+	}
+
+	/*
+	 * Code jumping to label if the boolean expression cond evaluates to when, falling through otherwise.
+	 * Comparisons branch directly on their operands and && || ! short-circuit to the
+	 * jump targets, so no 0/1 value is materialized on the stack.
+	 */
+	private Code jumpIf(Node cond, String label, boolean when) {
+		if (cond instanceof BoolNode)
+			return ((BoolNode) cond).val == when ? jump(BRANCH,label) : null;
+		if (cond instanceof NotNode)
+			return jumpIf(((NotNode) cond).exp, label, !when);
+		if (cond instanceof IfNode) { // e.g. the body of an inlined boolean function
+			IfNode i = (IfNode) cond;
+			String l1 = context.freshLabel();
+			String l2 = context.freshLabel();
+			return nlJoin(
+				jumpIf(i.cond,l1,true),
+				jumpIf(i.el,label,when),
+				jump(BRANCH,l2),
+				label(l1),
+				jumpIf(i.th,label,when),
+				label(l2)
+			);
+		}
+		if (cond instanceof AndNode || cond instanceof OrNode) {
+			Node left = cond instanceof AndNode ? ((AndNode) cond).left : ((OrNode) cond).left;
+			Node right = cond instanceof AndNode ? ((AndNode) cond).right : ((OrNode) cond).right;
+			// && jumping when false (|| when true) as soon as an operand does,
+			// otherwise the left operand skips the right one
+			if ((cond instanceof AndNode) != when) return nlJoin(jumpIf(left,label,when), jumpIf(right,label,when));
+			String skip = context.freshLabel();
+			return nlJoin(
+				jumpIf(left,skip,!when),
+				jumpIf(right,label,when),
+				label(skip)
+			);
+		}
+		Code operands;
+		int opcode;
+		if (cond instanceof EqualNode) {
+			operands = nlJoin(visit(((EqualNode) cond).left), visit(((EqualNode) cond).right));
+			opcode = BRANCHEQ;
+		} else if (cond instanceof LessEqualNode) {
+			operands = nlJoin(visit(((LessEqualNode) cond).left), visit(((LessEqualNode) cond).right));
+			opcode = BRANCHLESSEQ;
+		} else if (cond instanceof GreaterEqualNode) {
+			operands = nlJoin(visit(((GreaterEqualNode) cond).right), visit(((GreaterEqualNode) cond).left));
+			opcode = BRANCHLESSEQ;
+		} else { // boolean value (0/1) on the stack
+			return nlJoin(
+				visit(cond),
+				push(when?1:0),
+				jump(BRANCHEQ,label)
+			);
+		}
+		if (when) return nlJoin(operands, jump(opcode,label));
+		String skip = context.freshLabel(); // the SVM has no negated branches
 		return nlJoin(
-			visit(n.left),
-			visit(n.right),
-			"beq "+l1,
-			"push 0",
-			"b "+l2,
-			l1+":",
-			"push 1",
-			l2+":"
+			operands,
+			jump(opcode,skip),
+			jump(BRANCH,label),
+			label(skip)
 		);
 	}
 
-	@Override
-	public String visitNode(LessEqualNode n) {
-		if (print) printNode(n);
-		String l1 = freshLabel();
-		String l2 = freshLabel();
+	// whether jumpIf(cond,label,false) is shorter than jumpIf(cond,label,true)
+	private static boolean jumpsWhenFalse(Node cond) {
+		if (cond instanceof NotNode) return !jumpsWhenFalse(((NotNode) cond).exp);
+		return cond instanceof AndNode;
+	}
+
+	// code pushing the 0/1 value of a boolean expression, computed by jumping
+	private Code materialize(Node cond) {
+		boolean when = !jumpsWhenFalse(cond);
+		String l1 = context.freshLabel();
+		String l2 = context.freshLabel();
 		return nlJoin(
-				visit(n.left),
-				visit(n.right),
-				"bleq "+l1,
-				"push 0",
-				"b "+l2,
-				l1+":",
-				"push 1",
-				l2+":"
+			jumpIf(cond,l1,when),
+			push(when?0:1),
+			jump(BRANCH,l2),
+			label(l1),
+			push(when?1:0),
+			label(l2)
 		);
 	}
 
-	public String visitNode(GreaterEqualNode n) {
+	@Override
+	public Code visitNode(IfNode n) {
 		if (print) printNode(n);
-		String l1 = freshLabel();
-		String l2 = freshLabel();
+	 	String l1 = context.freshLabel();
+	 	String l2 = context.freshLabel();
+	 	boolean when = !jumpsWhenFalse(n.cond);
 		return nlJoin(
-				visit(n.right),
-				visit(n.left),
-				"bleq "+l1,
-				"push 0",
-				"b "+l2,
-				l1+":",
-				"push 1",
-				l2+":"
+			jumpIf(n.cond,l1,when),
+			visitBranch(n, when ? n.el : n.th),
+			jump(BRANCH,l2),
+			label(l1),
+			visitBranch(n, when ? n.th : n.el),
+			label(l2)
 		);
 	}
 
 	@Override
-	public String visitNode(NotNode n) {
+	public Code visitNode(EqualNode n) {
 		if (print) printNode(n);
-		String l1 = freshLabel();
-		String l2 = freshLabel();
-		return nlJoin(
-				visit(n.exp),
-				"push 0",
-				"beq "+l1,
-				"push 0",
-				"b "+l2,
-				l1+":",
-				"push 1",
-				l2+":"
-		);
+		return materialize(n);
 	}
 
 	@Override
-	public String visitNode(AndNode n) {
+	public Code visitNode(LessEqualNode n) {
 		if (print) printNode(n);
-		String l1 = freshLabel();
-		String l2 = freshLabel();
-		return nlJoin(
-				visit(n.left),
-				"push 0",
-				"beq "+l1,
-				visit(n.right),
-				"push 0",
-				"beq "+l1,
-				"push 1",
-				"b "+l2,
-				l1+":",
-				"push 0",
-				l2+":"
-		);
+		return materialize(n);
 	}
 
-	public String visitNode(OrNode n) {
+	public Code visitNode(GreaterEqualNode n) {
 		if (print) printNode(n);
-		String l1 = freshLabel();
-		String l2 = freshLabel();
-		return nlJoin(
-				visit(n.left),
-				"push 1",
-				"beq "+l1,
-				visit(n.right),
-				"push 1",
-				"beq "+l1,
-				"push 0",
-				"b "+l2,
-				l1+":",
-				"push 1",
-				l2+":"
-		);
+		return materialize(n);
+	}
+
+	@Override
+	public Code visitNode(NotNode n) {
+		if (print) printNode(n);
+		return materialize(n);
 	}
 
 	@Override
-	public String visitNode(TimesNode n) {
+	public Code visitNode(AndNode n) {
+		if (print) printNode(n);
+		return materialize(n);
+	}
+
+	public Code visitNode(OrNode n) {
+		if (print) printNode(n);
+		return materialize(n);
+	}
+
+	@Override
+	public Code visitNode(TimesNode n) {
 		if (print) printNode(n);
 		return nlJoin(
 			visit(n.left),
 			visit(n.right),
-			"mult"
+			op(MULT)
 		);	
 	}
 
-	public String visitNode(DivNode n) {
+	public Code visitNode(DivNode n) {
 		if (print) printNode(n);
 		return nlJoin(
 				visit(n.left),
 				visit(n.right),
-				"div"
+				op(DIV)
 		);
 	}
 
 	@Override
-	public String visitNode(PlusNode n) {
+	public Code visitNode(PlusNode n) {
 		if (print) printNode(n);
 		return nlJoin(
 			visit(n.left),
 			visit(n.right),
-			"add"				
+			op(ADD)				
 		);
 	}
 
 	@Override
-	public String visitNode(MinusNode n) {
+	public Code visitNode(MinusNode n) {
 		if (print) printNode(n);
 		return nlJoin(
 				visit(n.left),
 				visit(n.right),
-				"sub"
+				op(SUB)
 		);
 	}
 
 	@Override
-	public String visitNode(CallNode n) {
+	public Code visitNode(CallNode n) {
 		if (print) printNode(n,n.id);
-		String argCode = null, getAR = null;
+		Code argCode = null;
 		for (int i=n.arglist.size()-1;i>=0;i--) argCode=nlJoin(argCode,visit(n.arglist.get(i)));
-		for (int i = 0;i<n.nl-n.entry.nl;i++) getAR=nlJoin(getAR,"lw");
-		String methodLoad = n.entry.offset >= 0 ? "lw" : "";
+		int hops = n.nl-n.entry.nl;
+		MethodNode target = n.entry.offset >= 0 ? devirtualize(currentClass, n.entry.offset) : null;
+		String label = n.entry.offset < 0 ? funLabels.get(n.entry) : target != null ? methodLabel(target) : null;
+		// (a function declared in the current one has its frame as access link, which must not be replaced)
+		if (hops > 0 && isTailCall(n, label, n.arglist.size()))
+			return tailCall(argCode, frame(hops), label, n.arglist.size());
+		if (target != null) return nlJoin(
+			op(LOADFP), // load Control Link (pointer to frame of method "id" caller)
+			argCode, // generate code for argument expressions in reversed order
+			frame(hops), // load Access Link (object pointer of the caller method)
+			push(methodLabel(target)), // address of the method, known at compile time
+			op(JS)  // jump to popped address (saving address of subsequent instruction in $ra)
+		);
+		Code methodLoad = n.entry.offset >= 0 ? op(LOADW) : null;
 		return nlJoin(
-			"lfp", // load Control Link (pointer to frame of function "id" caller)
+			op(LOADFP), // load Control Link (pointer to frame of function "id" caller)
 			argCode, // generate code for argument expressions in reversed order
-			"lfp", getAR, // retrieve address of frame containing "id" declaration
-                          // by following the static chain (of Access Links)
-            "stm", // set $tm to popped value (with the aim of duplicating top of stack)
-            "ltm", // load Access Link (pointer to frame of function "id" declaration)
-            "ltm", // duplicate top of stack,
+			frame(hops), // retrieve address of frame containing "id" declaration
+                          // by following the static chain (of Access Links), see frame
+            op(STORETM), // set $tm to popped value (with the aim of duplicating top of stack)
+            op(LOADTM), // load Access Link (pointer to frame of function "id" declaration)
+            op(LOADTM), // duplicate top of stack,
 			methodLoad,		//load dispatch table address in case of method call
-            "push "+n.entry.offset, "add", // compute address of "id" declaration
-			"lw", // load address of "id" function
-            "js"  // jump to popped address (saving address of subsequent instruction in $ra)
+            push(n.entry.offset), op(ADD), // compute address of "id" declaration
+			op(LOADW), // load address of "id" function
+            op(JS)  // jump to popped address (saving address of subsequent instruction in $ra)
 		);
 	}
 
 	@Override
-	public String visitNode(IdNode n) {
+	public Code visitNode(IdNode n) {
 		if (print) printNode(n,n.id);
-		String getAR = null;
-		for (int i = 0;i<n.nl-n.entry.nl;i++) getAR=nlJoin(getAR,"lw");
+		int hops = n.nl-n.entry.nl;
 		return nlJoin(
-			"lfp", getAR, // retrieve address of frame containing "id" declaration
-			              // by following the static chain (of Access Links)
-			"push "+n.entry.offset, "add", // compute address of "id" declaration
-			"lw" // load value of "id" variable
+			frame(hops), // retrieve address of frame containing "id" declaration
+			              // by following the static chain (of Access Links), see frame
+			push(n.entry.offset), op(ADD), // compute address of "id" declaration
+			op(LOADW) // load value of "id" variable
 		);
 	}
 
 	@Override
-	public String visitNode(BoolNode n) {
+	public Code visitNode(BoolNode n) {
 		if (print) printNode(n,n.val.toString());
-		return "push "+(n.val?1:0);
+		return push(n.val?1:0);
 	}
 
 	@Override
-	public String visitNode(IntNode n) {
+	public Code visitNode(IntNode n) {
 		if (print) printNode(n,n.val.toString());
-		return "push "+n.val;
+		return push(n.val);
 	}
 
 	// OBJECT-ORIENTED EXTENSION
 	@Override
-	public String visitNode(ClassNode n) {
+	public Code visitNode(ClassNode n) {
 		if (print) printNode(n,n.id);
 		List<String> dispatchTable = new ArrayList<>();
 		dispatchTables.add(dispatchTable);
+		dispatchTableAddresses.add(dispatchTablesSize);
 		if (n.superId != null) {
 			List<String> superMethods = dispatchTables.get(-n.superEntry.offset - 2);
 			dispatchTable.addAll(superMethods);
 		}
 
-		String dispatchTableCode = "";
+		Code dispatchTableCode = null;
 
+		currentClass = n.id;
 		for (MethodNode method : n.methodList) {
 			visit(method);
-			String methodLabel = method.label;
+			String methodLabel = methodLabel(method);
 			int methodOffset = method.offset;
 			boolean override = methodOffset < dispatchTable.size();
 			if(override) {
@@ -320,124 +547,132 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
 			}
 		}
 
+		currentClass = null;
+
+		dispatchTablesSize += dispatchTable.size();
+
 		for (var method : dispatchTable) {
 			dispatchTableCode = nlJoin(
 					dispatchTableCode,
 					// Memorizzo l'indirizzo del metodo nell'Heap
-					"push " + method,
-					"lhp",
-					"sw",
+					push(method),
+					op(LOADHP),
+					op(STOREW),
 					// Incremento l'HP
-					"lhp",
-					"push 1",
-					"add",
-					"shp"
+					op(LOADHP),
+					push(1),
+					op(ADD),
+					op(STOREHP)
 			);
 		}
+		if (dispatchTableCode != null) dispatchTableCode.separate();
 
 		return nlJoin(
-				"lhp",
+				op(LOADHP),
 				dispatchTableCode
 		);
 	}
 
 	@Override
-	public String visitNode(MethodNode n) {
+	public Code visitNode(MethodNode n) {
 		if (print) printNode(n,n.id);
-		String declCode = null, popDecl = null, popParl = null;
+		Code declCode = null, popDecl = null, popParl = null;
 		for (Node dec : n.decList) {
 			declCode = nlJoin(declCode,visit(dec));
-			popDecl = nlJoin(popDecl,"pop");
+			popDecl = nlJoin(popDecl,op(POP));
 		}
-		for (int i = 0; i<n.parList.size(); i++) popParl = nlJoin(popParl,"pop");
-		n.label = freshFunLabel();
-		putCode(
+		for (int i = 0; i<n.parList.size(); i++) popParl = nlJoin(popParl,op(POP));
+		NavigableMap<Integer,Integer> frames = frameCache(n.exp, n.decList.size());
+		for (int i = 0; i<frames.size(); i++) popDecl = nlJoin(popDecl,op(POP));
+		context.putCode(
 				nlJoin(
-						n.label+":",
-						"cfp", // set $fp to $sp value
-						"lra", // load $ra value
+						label(methodLabel(n)),
+						op(COPYFP), // set $fp to $sp value
+						op(LOADRA), // load $ra value
 						declCode, // generate code for local declarations (they use the new $fp!!!)
-						visit(n.exp), // generate code for function body expression
-						"stm", // set $tm to popped value (function result)
-						popDecl, // remove local declarations from stack
-						"sra", // set $ra to popped value
-						"pop", // remove Access Link from stack
+						cacheFrames(frames), // cache pointers to outer frames used by the body
+						visitBody(n.exp, n.parList.size(), n.decList.size(), frames), // generate code for function body expression
+						op(STORETM), // set $tm to popped value (function result)
+						popDecl, // remove local declarations (and cached frame pointers) from stack
+						op(STORERA), // set $ra to popped value
+						op(POP), // remove Access Link from stack
 						popParl, // remove parameters from stack
-						"sfp", // set $fp to popped value (Control Link)
-						"ltm", // load $tm value (function result)
-						"lra", // load $ra value
-						"js"  // jump to popped address
+						op(STOREFP), // set $fp to popped value (Control Link)
+						op(LOADTM), // load $tm value (function result)
+						op(LOADRA), // load $ra value
+						op(JS)  // jump to popped address
 				)
 		);
 		return null;
 	}
 
 	@Override
-	public String visitNode(EmptyNode n) {
+	public Code visitNode(EmptyNode n) {
 		if (print) printNode(n);
-		return nlJoin("push -1");
+		return nlJoin(push(-1));
+	}
+
+	@Override
+	public Code visitNode(FieldAccessNode n) {
+		if (print) printNode(n, n.id);
+		return nlJoin(
+				visit(n.object), // load object pointer
+				push(n.offset), op(ADD), // compute address of field "id"
+				op(LOADW) // load value of field "id"
+		);
 	}
 
 	@Override
-	public String visitNode(ClassCallNode n) {
+	public Code visitNode(ClassCallNode n) {
 		if (print) printNode(n, n.refId+"."+n.methodId);
 
-		String argCode = null, getAR = null;
+		Code argCode = null;
 		for (int i=n.argList.size()-1;i>=0;i--) argCode=nlJoin(argCode,visit(n.argList.get(i)));
-		for (int i = 0; i<n.nestingLevel-n.classEntry.nl; i++) getAR=nlJoin(getAR,"lw");
+		int hops = n.nestingLevel-n.classEntry.nl;
+		MethodNode target = devirtualize(n);
+		if (target != null && isTailCall(n, methodLabel(target), n.argList.size()))
+			return tailCall(argCode, nlJoin(frame(hops), push(n.classEntry.offset), op(ADD), op(LOADW), nullCheck()),
+				methodLabel(target), n.argList.size());
+		if (target != null) return nlJoin(
+				op(LOADFP), // load Control Link (pointer to frame of method "id1.id2()" caller)
+				argCode,      // generate code for argument expressions in reversed order
+				frame(hops), // retrieve address of frame containing "id" declaration
+				push(n.classEntry.offset), op(ADD),
+				op(LOADW), // load Access Link (object pointer)
+				nullCheck(), // fail on a null object, as a call through its dispatch table
+				push(methodLabel(target)), // address of the method, known at compile time
+				op(JS)  // jump to popped address (saving address of subsequent instruction in $ra)
+		);
 		return nlJoin(
-				"lfp", // load Control Link (pointer to frame of method "id1.id2()" caller)
+				op(LOADFP), // load Control Link (pointer to frame of method "id1.id2()" caller)
 				argCode,      // generate code for argument expressions in reversed order
-				"lfp", getAR, // retrieve address of frame containing "id" declaration
-				          	  // by following the static chain (of Access Links)
-				"push "+n.classEntry.offset, "add", // compute address of "id" declaration
-				"lw", // load value of "id" variable
-				"stm", // set $tm to popped value (with the aim of duplicating top of stack)
-				"ltm", // load Access Link (object pointer to frame of class "id" declaration)
-				"ltm", // duplicate top of stack
-				"lw",
-				"push "+n.methodEntry.offset, "add", // compute address of "id" declaration
-				"lw", // load address of "id" method
-				"js"  // jump to popped address (saving address of subsequent instruction in $ra)
+				frame(hops), // retrieve address of frame containing "id" declaration
+				          	  // by following the static chain (of Access Links), see frame
+				push(n.classEntry.offset), op(ADD), // compute address of "id" declaration
+				op(LOADW), // load value of "id" variable
+				op(STORETM), // set $tm to popped value (with the aim of duplicating top of stack)
+				op(LOADTM), // load Access Link (object pointer to frame of class "id" declaration)
+				op(LOADTM), // duplicate top of stack
+				op(LOADW),
+				push(n.methodEntry.offset), op(ADD), // compute address of "id" declaration
+				op(LOADW), // load address of "id" method
+				op(JS)  // jump to popped address (saving address of subsequent instruction in $ra)
 		);
 	}
 
 	@Override
-	public String visitNode(NewNode n) {
+	public Code visitNode(NewNode n) {
 		if (print) printNode(n,n.id);
-		String argValueCode = null, argToHeap = null, getAR = null;
+		Code argValueCode = null;
 		for (int i=0;i<n.argList.size();i++)
 			argValueCode=nlJoin(argValueCode,visit(n.argList.get(i)));
-		for (int i=n.argList.size()-1;i>=0;i--) {
-			argToHeap = nlJoin(
-					argToHeap,
-					// Metto nell'Heap
-					"lhp",
-					"sw",
-					// Incremento l'HP
-					"lhp",
-					"push 1",
-					"add",
-					"shp"
-			);
-		}
 
 		return nlJoin(
 				argValueCode,
-				argToHeap,
-				// Prendo valore a MEMSIZE - offset
-				"push "+(MEMSIZE+n.entry.offset),
-				"lw",
-				// Lo metto nell'Heap
-				"lhp",
-				"sw",
-				// Pusho l'HP prima di incrementarlo
-				"lhp",
-				// Incremento l'HP
-				"lhp",
-				"push 1",
-				"add",
-				"shp"
+				// address of the dispatch table (known at compile time)
+				push(dispatchTableAddresses.get(-n.entry.offset - 2)),
+				// allocate the object in the heap (fields and dispatch pointer), pushing the object pointer
+				op(NEW, n.argList.size())
 		);
 	}
 }
\ No newline at end of file
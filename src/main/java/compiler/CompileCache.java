@@ -0,0 +1,177 @@
+package compiler;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import compiler.svm.ObjectFile;
+
+/**
+ * On-disk cache of assembled code ("--cache=DIR"), used by {@link Test} and {@link BatchCompiler}:
+ * compiling a source file that was already compiled reads its object file ({@link ObjectFile}) from
+ * the cache, instead of running lexer, parser, analyses, code generation and assembler again.
+ * <p>
+ * Entries are content-addressed: an entry is named by the SHA-256 hash of the compiler (its classes),
+ * of the options changing the generated code and of the source, so a changed source, option or
+ * compiler never finds a stale entry. Entries are written to a temporary file and then renamed, so
+ * that concurrent compilations (threads or processes) sharing the cache never read a partial entry.
+ * Reading an entry updates its modification time; when the entries exceed the maximum total size
+ * ("--cache-size=N" bytes) the least recently used ones are deleted.
+ */
+public class CompileCache {
+
+	static final long DEFAULT_MAX_SIZE = 64L << 20; // bytes
+	private static final String SUFFIX = ".svm";
+
+	// hash of the compiler classes, part of every key: computed when the first key is, as only
+	// compilations using a cache need it (holder class, initialized on first use)
+	private static class Compiler {
+		static final String HASH = compilerHash();
+	}
+
+	private final Path dir;
+	private final long maxSize;
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+
+	public CompileCache(Path dir, long maxSize) throws IOException {
+		this.dir = Files.createDirectories(dir);
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Creates the cache given by the "--cache=DIR" and "--cache-size=N" arguments, null if there is none.
+	 */
+	static CompileCache fromArgs(String[] args) throws IOException {
+		Path dir = null;
+		long maxSize = DEFAULT_MAX_SIZE;
+		for (String arg : args) {
+			if (arg.startsWith("--cache=")) dir = Paths.get(arg.substring("--cache=".length()));
+			if (arg.startsWith("--cache-size=")) maxSize = Long.parseLong(arg.substring("--cache-size=".length()));
+		}
+		return dir != null ? new CompileCache(dir, maxSize) : null;
+	}
+
+	/**
+	 * Options changing the generated code, part of the key of an entry.
+	 */
+	static String options(boolean optimize, boolean inline, boolean devirt, boolean tco, boolean frameCache, boolean peephole, boolean fuse) {
+		return "optimize="+optimize+" inline="+inline+" devirt="+devirt+" tco="+tco+" frameCache="+frameCache+" peephole="+peephole+" fuse="+fuse;
+	}
+
+	/**
+	 * Returns the key of the entry of a source compiled with the given options.
+	 */
+	public String key(byte[] source, String options) {
+		MessageDigest md = digest();
+		md.update((Compiler.HASH + "\0" + options + "\0").getBytes(StandardCharsets.UTF_8));
+		md.update(source);
+		return HexFormat.of().formatHex(md.digest());
+	}
+
+	/**
+	 * Returns the object file of an entry, null if the cache does not have it.
+	 */
+	public ObjectFile get(String key) {
+		Path entry = dir.resolve(key + SUFFIX);
+		try {
+			ObjectFile object = ObjectFile.read(entry);
+			Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+			hits.incrementAndGet();
+			return object;
+		} catch (NoSuchFileException e) {
+		} catch (IOException e) {
+			try {
+				Files.deleteIfExists(entry); // corrupted, or written by a different object file version
+			} catch (IOException ignored) {
+			}
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+	/**
+	 * Adds an entry with the first length words of code and their labels, then evicts the least
+	 * recently used entries if the cache is too large.
+	 */
+	public void put(String key, int[] code, int length, Map<String,Integer> labels) throws IOException {
+		Path temp = Files.createTempFile(dir, key, ".tmp");
+		try {
+			ObjectFile.write(temp, code, length, labels);
+			Files.move(temp, dir.resolve(key + SUFFIX), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+		evict();
+	}
+
+	private synchronized void evict() throws IOException {
+		List<Path> entries;
+		try (Stream<Path> files = Files.list(dir)) {
+			entries = files.filter(p -> p.toString().endsWith(SUFFIX)).toList();
+		}
+		Map<Path,FileTime> used = new HashMap<>();
+		long size = 0;
+		for (Path entry : entries) {
+			try {
+				size += Files.size(entry);
+				used.put(entry, Files.getLastModifiedTime(entry));
+			} catch (NoSuchFileException e) { // deleted by another process
+			}
+		}
+		if (size <= maxSize) return;
+		List<Path> lru = new ArrayList<>(used.keySet());
+		lru.sort(Comparator.comparing(used::get));
+		for (Path entry : lru) {
+			if (size <= maxSize) break;
+			try {
+				size -= Files.size(entry);
+				Files.delete(entry);
+			} catch (NoSuchFileException e) {
+			}
+		}
+	}
+
+	public int hits() {
+		return hits.get();
+	}
+
+	public int misses() {
+		return misses.get();
+	}
+
+	private static MessageDigest digest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// hash of the jar, or of the class files in the directory, the compiler is loaded from
+	private static String compilerHash() {
+		try {
+			Path location = Paths.get(CompileCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+			MessageDigest md = digest();
+			if (Files.isDirectory(location)) {
+				List<Path> classes;
+				try (Stream<Path> files = Files.walk(location)) {
+					classes = files.filter(p -> p.toString().endsWith(".class")).sorted().toList();
+				}
+				for (Path c : classes) {
+					md.update(location.relativize(c).toString().getBytes(StandardCharsets.UTF_8));
+					md.update(Files.readAllBytes(c));
+				}
+			} else md.update(Files.readAllBytes(location));
+			return HexFormat.of().formatHex(md.digest());
+		} catch (Exception e) {
+			throw new IllegalStateException("Cannot locate the compiler classes", e);
+		}
+	}
+}
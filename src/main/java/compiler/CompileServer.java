@@ -0,0 +1,129 @@
+package compiler;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Server mode of {@link Test} ("--server"): a long-lived compiler reading requests from stdin,
+ * one per line, and writing the responses to stdout, so that the parsers (with their DFA caches)
+ * and the compiler classes stay loaded and JIT-compiled by HotSpot across requests.
+ * <p>
+ * Requests:
+ * <ul>
+ * <li>{@code compile <file> [flags]} compiles a file;
+ * <li>{@code run <file> [flags]} compiles and runs it;
+ * <li>{@code stats} reports the number of requests served, their latency percentiles and the
+ * declarations reused and compiled;
+ * <li>{@code quit} reports the statistics and stops the server (as does the end of stdin).
+ * </ul>
+ * The flags are those of {@link BatchCompiler} ("--no-opt", "--jit", "--register", ...); a request with
+ * any other flag fails. A response is what the
+ * compilation printed (diagnostics, and the program output for {@code run}) followed by a status
+ * line starting with "# ": {@code # ok <ms>}, {@code # errors <n> <ms>} (front-end errors) or
+ * {@code # failed <reason> <ms>}, where ms is the latency of the request in milliseconds.
+ * Each request is compiled on a thread of its own with a large stack, so that deeply nested programs
+ * compile; a program nesting too deep for it fails with {@code # failed stack overflow <ms>},
+ * and the server goes on with the next request.
+ * Declarations unchanged since a previous request are not type checked and compiled again
+ * ({@link DeclarationCache}).
+ * The server prints {@code # ready} when it starts accepting requests.
+ */
+public class CompileServer {
+
+    private static final long STACK_SIZE = 1L << 30; // of the compiling threads: the visitors recurse on the nesting of the program
+
+    private final Path baseDir = Paths.get(".").toAbsolutePath().normalize();
+    private final List<Long> latencies = new ArrayList<>(); // of the compile and run requests served, in ns
+    private final DeclarationCache cache = new DeclarationCache(); // incremental recompilation
+
+    public static void main(String[] args) throws IOException {
+        new CompileServer().serve(new BufferedReader(new InputStreamReader(System.in)), System.out);
+    }
+
+    void serve(BufferedReader in, PrintStream out) throws IOException {
+        out.println("# ready");
+        out.flush();
+        String line;
+        while ((line = in.readLine()) != null) {
+            String[] words = line.trim().split("\\s+");
+            if (words[0].isEmpty()) continue;
+            if (words[0].equals("quit")) break;
+            if (words[0].equals("stats")) out.println("# " + stats());
+            else if ((words[0].equals("compile") || words[0].equals("run")) && words.length > 1)
+                out.print(compile(words[1], words[0].equals("run"), Arrays.asList(words).subList(2, words.length)));
+            else out.println("# failed unknown request: " + line.trim());
+            out.flush();
+        }
+        out.println("# " + stats());
+        out.flush();
+    }
+
+    // serves a compile (or run) request: output of the compilation and status line
+    private String compile(String fileName, boolean run, List<String> requestFlags) {
+        long start = System.nanoTime();
+        List<String> flags = new ArrayList<>(requestFlags);
+        if (run) flags.add("--run");
+        Path file = baseDir.resolve(fileName).normalize();
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        String status;
+        String unsupported = Pipeline.unsupported(flags);
+        if (unsupported != null) status = "failed unsupported flag: " + unsupported;
+        else if (!file.startsWith(baseDir)) status = "failed access denied: " + fileName;
+        else {
+            Pipeline pipeline = new Pipeline(flags);
+            pipeline.declarationCache = cache;
+            Pipeline.Result result = new Pipeline.Result(file);
+            PrintStream stdout = System.out;
+            System.setOut(new PrintStream(output, true));
+            Thread worker = new Thread(null, () -> {
+                try {
+                    pipeline.compile(result);
+                } catch (Throwable e) { // e.g. StackOverflowError for a program nesting too deep
+                    result.failure = e;
+                }
+            }, "compile", STACK_SIZE);
+            try {
+                worker.start();
+                worker.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                result.failure = e;
+            } finally {
+                System.setOut(stdout);
+            }
+            status = result.failure instanceof StackOverflowError ? "failed stack overflow"
+                : result.failure != null ? "failed " + result.failure
+                : result.errors > 0 ? "errors " + result.errors : "ok";
+        }
+        long latency = System.nanoTime() - start;
+        latencies.add(latency);
+        return output + "# " + status + " " + millis(latency) + "\n";
+    }
+
+    // number of requests and latency percentiles
+    String stats() {
+        if (latencies.isEmpty()) return "requests 0";
+        long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+        return "requests " + sorted.length
+            + " p50 " + millis(percentile(sorted, 50))
+            + " p90 " + millis(percentile(sorted, 90))
+            + " p99 " + millis(percentile(sorted, 99))
+            + " max " + millis(sorted[sorted.length-1])
+            + " declarations reused " + cache.reused + " compiled " + cache.compiled;
+    }
+
+    // nearest-rank percentile of sorted values
+    private static long percentile(long[] sorted, int p) {
+        int rank = (p * sorted.length + 99) / 100; // ceil(p/100 * n)
+        return sorted[Math.max(rank, 1) - 1];
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.2f", nanos / 1e6);
+    }
+}
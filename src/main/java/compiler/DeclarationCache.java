@@ -0,0 +1,135 @@
+package compiler;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.tree.*;
+import compiler.AST.*;
+import compiler.FOOLParser.*;
+import compiler.lib.*;
+import compiler.svm.Code;
+
+/**
+ * Results of type checking and code generation of the top-level declarations of the programs compiled,
+ * for incremental recompilation: {@link CompileServer} keeps a cache across requests, so that
+ * recompiling a program after an edit only type checks and generates code for the declarations that
+ * changed and for those depending on them, while the others reuse the results of previous compilations.
+ * <p>
+ * A declaration is identified by a content hash (SHA-256) of:
+ * <ul>
+ *   <li>its tokens (edits to whitespace and comments do not count);</li>
+ *   <li>its position, which determines its offset;</li>
+ *   <li>the hashes of the declarations it uses, hence of all those it depends on (the code of a
+ *       function also depends on the bodies of the functions inlined in it);</li>
+ *   <li>the tokens of all classes, since method calls are devirtualized on the whole class hierarchy;</li>
+ *   <li>the compiler options changing the generated code.</li>
+ * </ul>
+ * The labels of the code of a declaration start with a prefix taken from its hash
+ * ({@link CompilationContext#labelPrefix}), so that the code stays valid in every program
+ * containing the same declaration. Parsing, the symbol table and the AST optimizations still run on
+ * the whole program, which binds the uses of the declarations in the new AST; the peephole optimizer
+ * and the assembler run on the whole generated code.
+ */
+public class DeclarationCache {
+
+	static final int MAX_DECLARATIONS = 10000; // declarations kept, the least recently used are dropped
+
+	/**
+	 * Results of a declaration, filled by {@link TypeCheckEASTVisitor} and {@link CodeGenerationASTVisitor}
+	 * the first time the declaration is compiled.
+	 */
+	static class Declaration {
+		final String prefix;        // of the labels generated for the declaration
+		boolean typeChecked;        // the declaration type checks
+		Code code;                  // code of the declaration, null if not generated yet
+		Code functions;             // code of its functions and methods
+		String label;               // of the function (FunNode)
+		List<String> methodLabels;  // of the methods (ClassNode)
+		List<String> dispatchTable; // of the class (ClassNode)
+
+		Declaration(String prefix) {
+			this.prefix = prefix;
+		}
+	}
+
+	private final Map<String,Declaration> declarations = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String,Declaration> eldest) {
+			return size() > MAX_DECLARATIONS;
+		}
+	};
+
+	int reused = 0;   // declarations reused, in all compilations
+	int compiled = 0; // declarations compiled, in all compilations
+
+	/**
+	 * Returns the cached results of the top-level declarations of a program, by position, given the
+	 * program parse tree and AST (enriched by the symbol table) and the compiler options changing the
+	 * generated code; declarations never seen before get empty results, filled when compiled.
+	 */
+	List<Declaration> declarations(LetInProgContext tree, ProgLetInNode ast, String options) {
+		List<ParserRuleContext> decs = new ArrayList<>(tree.cldec());
+		decs.addAll(tree.dec());
+		MessageDigest classes = digest();
+		for (CldecContext cldec : tree.cldec()) tokens(cldec, classes);
+		byte[] classesHash = classes.digest();
+
+		List<byte[]> hashes = new ArrayList<>();
+		List<Declaration> result = new ArrayList<>();
+		for (int i = 0; i < decs.size(); i++) {
+			MessageDigest md = digest();
+			md.update((options + "\0" + i + "\0").getBytes(StandardCharsets.UTF_8));
+			tokens(decs.get(i), md);
+			Set<Integer> uses = new TreeSet<>();
+			uses(ast.declist.get(i), uses);
+			for (int j : uses) if (j < i) md.update(hashes.get(j));
+			md.update(classesHash);
+			byte[] hash = md.digest();
+			hashes.add(hash);
+			String key = HexFormat.of().formatHex(hash);
+			Declaration d = declarations.get(key);
+			if (d == null || d.code == null) compiled++;
+			else reused++;
+			if (d == null) declarations.put(key, d = new Declaration("d"+key.substring(0, 12)));
+			result.add(d);
+		}
+		return result;
+	}
+
+	private static MessageDigest digest() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	// hashes the tokens of a parse tree, separated so that distinct token sequences hash differently
+	private static void tokens(ParseTree t, MessageDigest md) {
+		if (t instanceof TerminalNode) md.update((t.getText() + "\0").getBytes(StandardCharsets.UTF_8));
+		else for (int i = 0; i < t.getChildCount(); i++) tokens(t.getChild(i), md);
+	}
+
+	// positions of the top-level declarations used in n (at offset -2-i for position i)
+	private static void uses(Node n, Set<Integer> uses) {
+		if (n instanceof IdNode) use(((IdNode) n).entry, uses);
+		if (n instanceof CallNode) use(((CallNode) n).entry, uses);
+		if (n instanceof ClassCallNode) use(((ClassCallNode) n).classEntry, uses); // entry of the object
+		if (n instanceof FunNode) {
+			for (Node dec : ((FunNode) n).decList) uses(dec, uses);
+			uses(((FunNode) n).exp, uses);
+		} else if (n instanceof VarNode) uses(((VarNode) n).exp, uses);
+		else if (n instanceof ClassNode) for (Node method : ((ClassNode) n).methodList) uses(method, uses);
+		else if (n instanceof MethodNode) {
+			for (Node dec : ((MethodNode) n).decList) uses(dec, uses);
+			uses(((MethodNode) n).exp, uses);
+		} else for (Node c : InliningASTVisitor.children(n)) uses(c, uses);
+	}
+
+	private static void use(STentry entry, Set<Integer> uses) {
+		if (entry != null && entry.nl == 0) uses.add(-2 - entry.offset);
+	}
+}
@@ -0,0 +1,485 @@
+package compiler;
+
+import java.util.*;
+import compiler.AST.*;
+import compiler.exc.*;
+import compiler.lib.*;
+
+/**
+ * Inlining of calls to small functions and methods, on the enriched AST before {@link OptimizationASTVisitor}.
+ * <p>
+ * visitNode(n) returns the node replacing n (n itself if nothing changes; the input AST is not
+ * modified). A call {@code f(a1,...,an)}, or {@code x.f(a1,...,an)} if the called method is known
+ * at compile time ({@link ClassHierarchy}), is replaced by the body of f, with the parameters
+ * replaced by the arguments, if:
+ * <ul>
+ *   <li>f has no local declarations and its body has at most {@link #MAX_SIZE} nodes;</li>
+ *   <li>f is not already being expanded (recursion) and the nesting of inlined calls
+ *       does not exceed {@link #MAX_DEPTH};</li>
+ *   <li>the arguments with effects (neither constants nor variables) are evaluated by the body exactly
+ *       once on every path, in the same order as the call (right to left) and before any
+ *       other effect (prints, calls, divisions, field reads);</li>
+ *   <li>for a method, the body reads a field of x or calls one of its methods on every path, after the
+ *       arguments with effects and before any other effect: as the call, which loads the dispatch
+ *       pointer of x, it fails if x is null.</li>
+ * </ul>
+ * The copied body is moved to the nesting level of the call: the nesting level of its uses
+ * (IdNode, CallNode, ClassCallNode) becomes that of the call, while the STentries (nesting level
+ * and offset of the declarations) stay the same, as everything visible from f is visible
+ * from the call too, through the same static chain. In the body of a method the fields
+ * become reads of the fields of x ({@link FieldAccessNode}) and the calls to the other methods
+ * of the class become calls on x.
+ * The declarations of functions are kept, even if all their calls were expanded,
+ * so that the offsets of the following declarations do not change.
+ */
+public class InliningASTVisitor extends BaseASTVisitor<Node,VoidException> {
+
+	static final int MAX_SIZE = 16; // max nodes of an inlined body
+	static final int MAX_DEPTH = 4; // max nesting of calls inlined into inlined bodies
+
+	int inlined = 0;                                         // inlined calls
+	final Map<String,Integer> inlinedCalls = new LinkedHashMap<>(); // inlined calls of each function
+
+	boolean devirtualization = true; // calls of methods known at compile time are inlined too
+	private ClassHierarchy hierarchy = new ClassHierarchy(List.of());
+	private final Map<STentry,FunNode> functions = new HashMap<>();      // already visited functions
+	private final Map<MethodNode,MethodNode> methods = new HashMap<>();  // already visited methods
+	private final Deque<DecNode> expanding = new ArrayDeque<>();        // functions and methods being inlined
+	private Inline inline; // call whose callee body is being copied, null outside inlined bodies
+
+	InliningASTVisitor() {}
+	InliningASTVisitor(boolean debug) {super(false,debug);} // enables print for debugging
+
+	/*
+	 * Call being inlined: the uses of the parameters (nesting level bodyLevel, offset >= 1)
+	 * are replaced by the arguments, the other uses move from bodyLevel to callLevel.
+	 * For methods, receiver is the object, whose fields and methods are at nesting level bodyLevel-1.
+	 */
+	private static class Inline {
+		final List<Node> args;
+		final int bodyLevel;
+		final int callLevel;
+		final IdNode receiver;
+
+		Inline(List<Node> args, int bodyLevel, int callLevel, IdNode receiver) {
+			this.args = args;
+			this.bodyLevel = bodyLevel;
+			this.callLevel = callLevel;
+			this.receiver = receiver;
+		}
+
+		boolean isParam(STentry entry) {
+			return entry.nl == bodyLevel && entry.offset >= 1;
+		}
+
+		boolean isMember(STentry entry) {
+			return receiver != null && entry.nl == bodyLevel-1;
+		}
+
+		int level(int nl) {
+			return nl - bodyLevel + callLevel;
+		}
+	}
+
+	// expression without effects whose value does not change, it can be evaluated more than once
+	private static boolean isPure(Node n) {
+		return n instanceof IntNode || n instanceof BoolNode || n instanceof EmptyNode || n instanceof IdNode;
+	}
+
+	// subexpressions in the evaluation order of the generated code
+	static List<Node> children(Node n) {
+		if (n instanceof PrintNode) return List.of(((PrintNode) n).exp);
+		if (n instanceof IfNode) return List.of(((IfNode) n).cond, ((IfNode) n).th, ((IfNode) n).el);
+		if (n instanceof EqualNode) return List.of(((EqualNode) n).left, ((EqualNode) n).right);
+		if (n instanceof LessEqualNode) return List.of(((LessEqualNode) n).left, ((LessEqualNode) n).right);
+		if (n instanceof GreaterEqualNode) return List.of(((GreaterEqualNode) n).right, ((GreaterEqualNode) n).left);
+		if (n instanceof NotNode) return List.of(((NotNode) n).exp);
+		if (n instanceof AndNode) return List.of(((AndNode) n).left, ((AndNode) n).right);
+		if (n instanceof OrNode) return List.of(((OrNode) n).left, ((OrNode) n).right);
+		if (n instanceof TimesNode) return List.of(((TimesNode) n).left, ((TimesNode) n).right);
+		if (n instanceof DivNode) return List.of(((DivNode) n).left, ((DivNode) n).right);
+		if (n instanceof PlusNode) return List.of(((PlusNode) n).left, ((PlusNode) n).right);
+		if (n instanceof MinusNode) return List.of(((MinusNode) n).left, ((MinusNode) n).right);
+		if (n instanceof CallNode) return reversed(((CallNode) n).arglist);
+		if (n instanceof ClassCallNode) return reversed(((ClassCallNode) n).argList);
+		if (n instanceof NewNode) return ((NewNode) n).argList;
+		if (n instanceof FieldAccessNode) return List.of(((FieldAccessNode) n).object);
+		return List.of();
+	}
+
+	private static List<Node> reversed(List<Node> nodes) {
+		List<Node> r = new ArrayList<>(nodes);
+		Collections.reverse(r);
+		return r;
+	}
+
+	private static int size(Node n) {
+		int size = 1;
+		for (Node c : children(n)) size += size(c);
+		return size;
+	}
+
+	private static final int FAIL = -1;
+	private static final int RECEIVER = -2; // in order, dereference of the receiver
+
+	/*
+	 * Checks the evaluation order of the arguments with effects in the body n of a function:
+	 * order lists their indexes in the order the call would evaluate them (followed by RECEIVER
+	 * for a method), pos how many of them were already evaluated. Returns how many are evaluated
+	 * after n, FAIL if the order is not respected.
+	 */
+	private static int trace(Node n, int pos, int[] order, Inline call) {
+		if (pos == FAIL) return FAIL;
+		if (n instanceof IdNode) {
+			STentry entry = ((IdNode) n).entry;
+			if (call.isMember(entry)) return dereference(pos, order); // field of the receiver
+			if (!call.isParam(entry) || isPure(call.args.get(entry.offset-1))) return pos;
+			return pos < order.length && order[pos] == entry.offset-1 ? pos+1 : FAIL;
+		}
+		if (n instanceof IfNode) {
+			IfNode i = (IfNode) n;
+			pos = trace(i.cond, pos, order, call);
+			int th = trace(i.th, pos, order, call);
+			return th == trace(i.el, pos, order, call) ? th : FAIL;
+		}
+		if (n instanceof AndNode || n instanceof OrNode) { // right operand not always evaluated
+			List<Node> operands = children(n);
+			pos = trace(operands.get(0), pos, order, call);
+			return trace(operands.get(1), pos, order, call) == pos ? pos : FAIL;
+		}
+		if (n instanceof ClassCallNode) {
+			STentry entry = ((ClassCallNode) n).classEntry;
+			if (call.isParam(entry) && !(call.args.get(entry.offset-1) instanceof IdNode)) return FAIL;
+			if (call.isMember(entry)) return FAIL; // object in a field of the receiver, not in a variable
+		}
+		for (Node c : children(n)) pos = trace(c, pos, order, call);
+		if (n instanceof CallNode && call.isMember(((CallNode) n).entry)) pos = dereference(pos, order); // method of the receiver
+		boolean effect = n instanceof PrintNode || n instanceof DivNode || n instanceof CallNode || n instanceof ClassCallNode
+			|| n instanceof FieldAccessNode; // fails if the object is null
+		return !effect || pos == order.length ? pos : FAIL;
+	}
+
+	// dereference of the receiver, after pos evaluations: the first one must follow all the arguments with effects
+	private static int dereference(int pos, int[] order) {
+		if (pos == FAIL || pos == order.length) return pos; // (already dereferenced)
+		return order[pos] == RECEIVER ? pos+1 : FAIL;
+	}
+
+	/*
+	 * Body exp of the function or method callee (with declarations decList) for the call call,
+	 * substituted and optimized; null if the call cannot be expanded.
+	 */
+	private Node expand(DecNode callee, String name, List<DecNode> decList, Node exp, Inline call) {
+		if (!decList.isEmpty() || expanding.contains(callee) || expanding.size() >= MAX_DEPTH
+				|| size(exp) > MAX_SIZE) return null;
+		int[] order = new int[call.args.size()+1];
+		int effectful = 0;
+		for (int i = call.args.size()-1; i >= 0; i--) if (!isPure(call.args.get(i))) order[effectful++] = i;
+		if (call.receiver != null) order[effectful++] = RECEIVER;
+		if (trace(exp, 0, Arrays.copyOf(order, effectful), call) != effectful) return null;
+
+		Inline outer = inline;
+		inline = call;
+		expanding.push(callee);
+		Node body = visit(exp);
+		expanding.pop();
+		inline = outer;
+		inlined++;
+		inlinedCalls.merge(name, 1, Integer::sum);
+		return body;
+	}
+
+	private <T extends Node> T line(T copy, Node n) {
+		copy.setLine(n.getLine());
+		return copy;
+	}
+
+	// list of the visited nodes, the list itself if no node changes
+	@SuppressWarnings("unchecked")
+	private <T extends Node> List<T> visitList(List<T> nodes) {
+		List<T> result = new ArrayList<>();
+		boolean changed = false;
+		for (T n : nodes) {
+			T o = (T) visit(n);
+			changed |= o != n;
+			result.add(o);
+		}
+		return changed ? result : nodes;
+	}
+
+	@Override
+	public Node visitNode(ProgLetInNode n) {
+		if (print) printNode(n);
+		hierarchy = new ClassHierarchy(devirtualization ? n.declist : List.of());
+		List<DecNode> declist = visitList(n.declist);
+		Node exp = visit(n.exp);
+		if (declist == n.declist && exp == n.exp) return n;
+		return line(new ProgLetInNode(declist, exp), n);
+	}
+
+	@Override
+	public Node visitNode(ProgNode n) {
+		if (print) printNode(n);
+		Node exp = visit(n.exp);
+		if (exp == n.exp) return n;
+		return line(new ProgNode(exp), n);
+	}
+
+	@Override
+	public Node visitNode(FunNode n) {
+		if (print) printNode(n,n.id);
+		List<DecNode> decList = visitList(n.decList);
+		Node exp = visit(n.exp);
+		FunNode f = n;
+		if (decList != n.decList || exp != n.exp) {
+			f = line(new FunNode(n.id, n.retType, n.parList, decList, exp), n);
+			f.entry = n.entry;
+		}
+		functions.put(n.entry, f); // calls are inlined with the already optimized body
+		return f;
+	}
+
+	@Override
+	public Node visitNode(VarNode n) {
+		if (print) printNode(n,n.id);
+		Node exp = visit(n.exp);
+		if (exp == n.exp) return n;
+		return line(new VarNode(n.id, n.getType(), exp), n);
+	}
+
+	@Override
+	public Node visitNode(PrintNode n) {
+		if (print) printNode(n);
+		Node exp = visit(n.exp);
+		if (exp == n.exp) return n;
+		return line(new PrintNode(exp), n);
+	}
+
+	@Override
+	public Node visitNode(IfNode n) {
+		if (print) printNode(n);
+		Node cond = visit(n.cond);
+		Node th = visit(n.th);
+		Node el = visit(n.el);
+		if (cond == n.cond && th == n.th && el == n.el) return n;
+		return line(new IfNode(cond, th, el), n);
+	}
+
+	@Override
+	public Node visitNode(EqualNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		if (left == n.left && right == n.right) return n;
+		return line(new EqualNode(left, right), n);
+	}
+
+	@Override
+	public Node visitNode(LessEqualNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		if (left == n.left && right == n.right) return n;
+		return line(new LessEqualNode(left, right), n);
+	}
+
+	public Node visitNode(GreaterEqualNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		if (left == n.left && right == n.right) return n;
+		return line(new GreaterEqualNode(left, right), n);
+	}
+
+	@Override
+	public Node visitNode(NotNode n) {
+		if (print) printNode(n);
+		Node exp = visit(n.exp);
+		if (exp == n.exp) return n;
+		return line(new NotNode(exp), n);
+	}
+
+	@Override
+	public Node visitNode(AndNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		if (left == n.left && right == n.right) return n;
+		return line(new AndNode(left, right), n);
+	}
+
+	public Node visitNode(OrNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		if (left == n.left && right == n.right) return n;
+		return line(new OrNode(left, right), n);
+	}
+
+	@Override
+	public Node visitNode(TimesNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		if (left == n.left && right == n.right) return n;
+		return line(new TimesNode(left, right), n);
+	}
+
+	public Node visitNode(DivNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		if (left == n.left && right == n.right) return n;
+		return line(new DivNode(left, right), n);
+	}
+
+	@Override
+	public Node visitNode(PlusNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		if (left == n.left && right == n.right) return n;
+		return line(new PlusNode(left, right), n);
+	}
+
+	@Override
+	public Node visitNode(MinusNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		if (left == n.left && right == n.right) return n;
+		return line(new MinusNode(left, right), n);
+	}
+
+	@Override
+	public Node visitNode(CallNode n) {
+		if (print) printNode(n,n.id);
+		List<Node> arglist = visitList(n.arglist);
+		if (inline != null && inline.isMember(n.entry)) { // another method of the object of the inlined method
+			ClassCallNode c = line(new ClassCallNode(inline.receiver.id, n.id, arglist), n);
+			c.classEntry = inline.receiver.entry;
+			c.nestingLevel = inline.receiver.nl;
+			c.methodEntry = n.entry;
+			return expand(c);
+		}
+		int nl = inline != null ? inline.level(n.nl) : n.nl;
+		FunNode f = functions.get(n.entry);
+		Node body = f == null ? null : expand(f, f.id, f.decList, f.exp, new Inline(arglist, n.entry.nl+1, nl, null));
+		if (body != null) return body;
+		if (arglist == n.arglist && nl == n.nl) return n;
+		CallNode c = line(new CallNode(n.id, arglist), n);
+		c.entry = n.entry;
+		c.nl = nl;
+		return c;
+	}
+
+	@Override
+	public Node visitNode(IdNode n) {
+		if (print) printNode(n,n.id);
+		if (inline == null) return n;
+		if (inline.isParam(n.entry)) return inline.args.get(n.entry.offset-1);
+		if (inline.isMember(n.entry)) return line(new FieldAccessNode(inline.receiver, n.id, n.entry.offset), n);
+		IdNode c = line(new IdNode(n.id), n);
+		c.entry = n.entry;
+		c.nl = inline.level(n.nl);
+		return c;
+	}
+
+	@Override
+	public Node visitNode(BoolNode n) {
+		if (print) printNode(n,n.val.toString());
+		return n;
+	}
+
+	@Override
+	public Node visitNode(IntNode n) {
+		if (print) printNode(n,n.val.toString());
+		return n;
+	}
+
+	// OBJECT-ORIENTED EXTENSION
+
+	@Override
+	public Node visitNode(ClassNode n) {
+		if (print) printNode(n,n.id);
+		List<MethodNode> methodList = visitList(n.methodList);
+		if (methodList == n.methodList) return n;
+		ClassNode c = line(new ClassNode(n.id, n.fieldList, methodList, n.superId), n);
+		c.superEntry = n.superEntry;
+		c.setType(n.getType());
+		return c;
+	}
+
+	@Override
+	public Node visitNode(MethodNode n) {
+		if (print) printNode(n,n.id);
+		List<DecNode> decList = visitList(n.decList);
+		Node exp = visit(n.exp);
+		MethodNode m = n;
+		if (decList != n.decList || exp != n.exp) {
+			m = line(new MethodNode(n.id, n.retType, n.parList, decList, exp), n);
+			m.offset = n.offset;
+			m.setType(n.getType());
+		}
+		methods.put(n, m); // calls are inlined with the already optimized body
+		return m;
+	}
+
+	@Override
+	public Node visitNode(ClassCallNode n) {
+		if (print) printNode(n, n.refId+"."+n.methodId);
+		List<Node> argList = visitList(n.argList);
+		ClassCallNode c = n;
+		if (inline != null && inline.isParam(n.classEntry)) { // object passed as argument (a variable)
+			IdNode ref = (IdNode) inline.args.get(n.classEntry.offset-1);
+			c = line(new ClassCallNode(ref.id, n.methodId, argList), n);
+			c.classEntry = ref.entry;
+			c.nestingLevel = ref.nl;
+			c.methodEntry = n.methodEntry;
+		} else if (inline != null || argList != n.argList) {
+			c = line(new ClassCallNode(n.refId, n.methodId, argList), n);
+			c.classEntry = n.classEntry;
+			c.nestingLevel = inline != null ? inline.level(n.nestingLevel) : n.nestingLevel;
+			c.methodEntry = n.methodEntry;
+		}
+		return expand(c);
+	}
+
+	// body of the method called by c, if known at compile time and expandable, otherwise c itself
+	private Node expand(ClassCallNode c) {
+		MethodNode target = hierarchy.target(c);
+		MethodNode m = target != null ? methods.get(target) : null;
+		if (m == null) return c;
+		IdNode receiver = line(new IdNode(c.refId), c);
+		receiver.entry = c.classEntry;
+		receiver.nl = c.nestingLevel;
+		Node body = expand(m, ((RefTypeNode) c.classEntry.type).id+"."+m.id, m.decList, m.exp,
+			new Inline(c.argList, c.methodEntry.nl+1, c.nestingLevel, receiver));
+		return body != null ? body : c;
+	}
+
+	@Override
+	public Node visitNode(NewNode n) {
+		if (print) printNode(n,n.id);
+		List<Node> argList = visitList(n.argList);
+		if (argList == n.argList) return n;
+		NewNode c = line(new NewNode(n.id, argList), n);
+		c.entry = n.entry;
+		return c;
+	}
+
+	@Override
+	public Node visitNode(EmptyNode n) {
+		if (print) printNode(n);
+		return n;
+	}
+
+	@Override
+	public Node visitNode(FieldAccessNode n) {
+		if (print) printNode(n, n.id);
+		if (inline == null) return n;
+		Node object = visit(n.object);
+		if (object == n.object) return n;
+		return line(new FieldAccessNode(object, n.id, n.offset), n);
+	}
+}
@@ -0,0 +1,346 @@
+package compiler;
+
+import java.util.*;
+import compiler.AST.*;
+import compiler.exc.*;
+import compiler.lib.*;
+
+/**
+ * Optimization of the enriched AST, between type checking and code generation.
+ * <p>
+ * visitNode(n) returns the optimized node replacing n (n itself if nothing changes;
+ * the input AST is not modified):
+ * <ul>
+ *   <li>expressions with constant operands are computed (constant folding),
+ *       e.g. {@code 2*3+1} becomes {@code 7} and {@code 1<=2} becomes {@code true};</li>
+ *   <li>identities are simplified, e.g. {@code x*1}, {@code x+0}, {@code x-0}, {@code x/1},
+ *       {@code true&&x}, {@code false||x} and {@code !(!(x))} become {@code x};
+ *       {@code x*0} and {@code x&&false} are simplified only if x has no effects
+ *       (a constant or a variable);</li>
+ *   <li>an if with a constant condition is replaced by the chosen branch.</li>
+ * </ul>
+ * Divisions by zero are not computed, as they fail at run time.
+ */
+public class OptimizationASTVisitor extends BaseASTVisitor<Node,VoidException> {
+
+	int folded = 0;     // constant expressions computed
+	int simplified = 0; // identities simplified
+	int pruned = 0;     // if with constant condition replaced by a branch
+
+	OptimizationASTVisitor() {}
+	OptimizationASTVisitor(boolean debug) {super(false,debug);} // enables print for debugging
+
+	// value of an integer or boolean constant (booleans as 0/1), null if n is not a constant
+	private static Integer value(Node n) {
+		if (n instanceof IntNode) return ((IntNode) n).val;
+		if (n instanceof BoolNode) return ((BoolNode) n).val ? 1 : 0;
+		return null;
+	}
+
+	private static boolean isValue(Node n, int v) {
+		Integer value = value(n);
+		return value != null && value == v;
+	}
+
+	// expression without effects (no prints, no calls, no run-time errors)
+	private static boolean isPure(Node n) {
+		return n instanceof IntNode || n instanceof BoolNode || n instanceof EmptyNode || n instanceof IdNode;
+	}
+
+	private Node fold(int v, Node n) {
+		folded++;
+		return line(new IntNode(v), n);
+	}
+
+	private Node fold(boolean v, Node n) {
+		folded++;
+		return line(new BoolNode(v), n);
+	}
+
+	private Node simplify(Node result) {
+		simplified++;
+		return result;
+	}
+
+	private <T extends Node> T line(T copy, Node n) {
+		copy.setLine(n.getLine());
+		return copy;
+	}
+
+	// list of the optimized nodes, the list itself if no node changes
+	@SuppressWarnings("unchecked")
+	private <T extends Node> List<T> visitList(List<T> nodes) {
+		List<T> result = new ArrayList<>();
+		boolean changed = false;
+		for (T n : nodes) {
+			T o = (T) visit(n);
+			changed |= o != n;
+			result.add(o);
+		}
+		return changed ? result : nodes;
+	}
+
+	@Override
+	public Node visitNode(ProgLetInNode n) {
+		if (print) printNode(n);
+		List<DecNode> declist = visitList(n.declist);
+		Node exp = visit(n.exp);
+		if (declist == n.declist && exp == n.exp) return n;
+		return line(new ProgLetInNode(declist, exp), n);
+	}
+
+	@Override
+	public Node visitNode(ProgNode n) {
+		if (print) printNode(n);
+		Node exp = visit(n.exp);
+		if (exp == n.exp) return n;
+		return line(new ProgNode(exp), n);
+	}
+
+	@Override
+	public Node visitNode(FunNode n) {
+		if (print) printNode(n,n.id);
+		List<DecNode> decList = visitList(n.decList);
+		Node exp = visit(n.exp);
+		if (decList == n.decList && exp == n.exp) return n;
+		FunNode f = line(new FunNode(n.id, n.retType, n.parList, decList, exp), n);
+		f.entry = n.entry;
+		return f;
+	}
+
+	@Override
+	public Node visitNode(VarNode n) {
+		if (print) printNode(n,n.id);
+		Node exp = visit(n.exp);
+		if (exp == n.exp) return n;
+		return line(new VarNode(n.id, n.getType(), exp), n);
+	}
+
+	@Override
+	public Node visitNode(PrintNode n) {
+		if (print) printNode(n);
+		Node exp = visit(n.exp);
+		if (exp == n.exp) return n;
+		return line(new PrintNode(exp), n);
+	}
+
+	@Override
+	public Node visitNode(IfNode n) {
+		if (print) printNode(n);
+		Node cond = visit(n.cond);
+		Node th = visit(n.th);
+		Node el = visit(n.el);
+		if (cond instanceof BoolNode) {
+			pruned++;
+			return ((BoolNode) cond).val ? th : el;
+		}
+		if (cond == n.cond && th == n.th && el == n.el) return n;
+		return line(new IfNode(cond, th, el), n);
+	}
+
+	@Override
+	public Node visitNode(EqualNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		if (value(left) != null && value(right) != null) return fold(value(left).equals(value(right)), n);
+		if (left instanceof EmptyNode && right instanceof EmptyNode) return fold(true, n);
+		if (left == n.left && right == n.right) return n;
+		return line(new EqualNode(left, right), n);
+	}
+
+	@Override
+	public Node visitNode(LessEqualNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		if (value(left) != null && value(right) != null) return fold(value(left) <= value(right), n);
+		if (left == n.left && right == n.right) return n;
+		return line(new LessEqualNode(left, right), n);
+	}
+
+	public Node visitNode(GreaterEqualNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		if (value(left) != null && value(right) != null) return fold(value(left) >= value(right), n);
+		if (left == n.left && right == n.right) return n;
+		return line(new GreaterEqualNode(left, right), n);
+	}
+
+	@Override
+	public Node visitNode(NotNode n) {
+		if (print) printNode(n);
+		Node exp = visit(n.exp);
+		if (exp instanceof BoolNode) return fold(!((BoolNode) exp).val, n);
+		if (exp instanceof NotNode) return simplify(((NotNode) exp).exp);
+		if (exp == n.exp) return n;
+		return line(new NotNode(exp), n);
+	}
+
+	@Override
+	public Node visitNode(AndNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		if (left instanceof BoolNode && right instanceof BoolNode)
+			return fold(((BoolNode) left).val && ((BoolNode) right).val, n);
+		if (isValue(left, 1)) return simplify(right);
+		if (isValue(left, 0)) return simplify(left); // right operand never evaluated
+		if (isValue(right, 1)) return simplify(left);
+		if (isValue(right, 0) && isPure(left)) return simplify(right);
+		if (left == n.left && right == n.right) return n;
+		return line(new AndNode(left, right), n);
+	}
+
+	public Node visitNode(OrNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		if (left instanceof BoolNode && right instanceof BoolNode)
+			return fold(((BoolNode) left).val || ((BoolNode) right).val, n);
+		if (isValue(left, 0)) return simplify(right);
+		if (isValue(left, 1)) return simplify(left); // right operand never evaluated
+		if (isValue(right, 0)) return simplify(left);
+		if (isValue(right, 1) && isPure(left)) return simplify(right);
+		if (left == n.left && right == n.right) return n;
+		return line(new OrNode(left, right), n);
+	}
+
+	@Override
+	public Node visitNode(TimesNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		if (value(left) != null && value(right) != null) return fold(value(left) * value(right), n);
+		if (isValue(right, 1)) return simplify(left);
+		if (isValue(left, 1)) return simplify(right);
+		if (isValue(right, 0) && isPure(left)) return simplify(line(new IntNode(0), n));
+		if (isValue(left, 0) && isPure(right)) return simplify(line(new IntNode(0), n));
+		if (left == n.left && right == n.right) return n;
+		return line(new TimesNode(left, right), n);
+	}
+
+	public Node visitNode(DivNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		if (value(left) != null && value(right) != null && value(right) != 0) return fold(value(left) / value(right), n);
+		if (isValue(right, 1)) return simplify(left);
+		if (left == n.left && right == n.right) return n;
+		return line(new DivNode(left, right), n);
+	}
+
+	@Override
+	public Node visitNode(PlusNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		if (value(left) != null && value(right) != null) return fold(value(left) + value(right), n);
+		if (isValue(right, 0)) return simplify(left);
+		if (isValue(left, 0)) return simplify(right);
+		if (left == n.left && right == n.right) return n;
+		return line(new PlusNode(left, right), n);
+	}
+
+	@Override
+	public Node visitNode(MinusNode n) {
+		if (print) printNode(n);
+		Node left = visit(n.left);
+		Node right = visit(n.right);
+		if (value(left) != null && value(right) != null) return fold(value(left) - value(right), n);
+		if (isValue(right, 0)) return simplify(left);
+		if (left == n.left && right == n.right) return n;
+		return line(new MinusNode(left, right), n);
+	}
+
+	@Override
+	public Node visitNode(CallNode n) {
+		if (print) printNode(n,n.id);
+		List<Node> arglist = visitList(n.arglist);
+		if (arglist == n.arglist) return n;
+		CallNode c = line(new CallNode(n.id, arglist), n);
+		c.entry = n.entry;
+		c.nl = n.nl;
+		return c;
+	}
+
+	@Override
+	public Node visitNode(IdNode n) {
+		if (print) printNode(n,n.id);
+		return n;
+	}
+
+	@Override
+	public Node visitNode(BoolNode n) {
+		if (print) printNode(n,n.val.toString());
+		return n;
+	}
+
+	@Override
+	public Node visitNode(IntNode n) {
+		if (print) printNode(n,n.val.toString());
+		return n;
+	}
+
+	// OBJECT-ORIENTED EXTENSION
+
+	@Override
+	public Node visitNode(ClassNode n) {
+		if (print) printNode(n,n.id);
+		List<MethodNode> methodList = visitList(n.methodList);
+		if (methodList == n.methodList) return n;
+		ClassNode c = line(new ClassNode(n.id, n.fieldList, methodList, n.superId), n);
+		c.superEntry = n.superEntry;
+		c.setType(n.getType());
+		return c;
+	}
+
+	@Override
+	public Node visitNode(MethodNode n) {
+		if (print) printNode(n,n.id);
+		List<DecNode> decList = visitList(n.decList);
+		Node exp = visit(n.exp);
+		if (decList == n.decList && exp == n.exp) return n;
+		MethodNode m = line(new MethodNode(n.id, n.retType, n.parList, decList, exp), n);
+		m.offset = n.offset;
+		m.setType(n.getType());
+		return m;
+	}
+
+	@Override
+	public Node visitNode(ClassCallNode n) {
+		if (print) printNode(n, n.refId+"."+n.methodId);
+		List<Node> argList = visitList(n.argList);
+		if (argList == n.argList) return n;
+		ClassCallNode c = line(new ClassCallNode(n.refId, n.methodId, argList), n);
+		c.classEntry = n.classEntry;
+		c.methodEntry = n.methodEntry;
+		c.nestingLevel = n.nestingLevel;
+		return c;
+	}
+
+	@Override
+	public Node visitNode(NewNode n) {
+		if (print) printNode(n,n.id);
+		List<Node> argList = visitList(n.argList);
+		if (argList == n.argList) return n;
+		NewNode c = line(new NewNode(n.id, argList), n);
+		c.entry = n.entry;
+		return c;
+	}
+
+	@Override
+	public Node visitNode(EmptyNode n) {
+		if (print) printNode(n);
+		return n;
+	}
+
+	@Override
+	public Node visitNode(FieldAccessNode n) {
+		if (print) printNode(n, n.id);
+		Node object = visit(n.object);
+		if (object == n.object) return n;
+		return line(new FieldAccessNode(object, n.id, n.offset), n);
+	}
+}
@@ -0,0 +1,297 @@
+package compiler;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.antlr.v4.runtime.*;
+import compiler.AST.*;
+import compiler.lib.*;
+import compiler.exc.*;
+import compiler.svm.*;
+
+/**
+ * The compilation of a FOOL program, from the source file to the run of the generated code, shared by
+ * {@link Test}, {@link BatchCompiler} and {@link CompileServer}, so that the three of them honour the same
+ * flags in the same way.
+ * <p>
+ * The flags are those of {@link Test} ({@link #FLAGS}, "--mem-size=N" and "--unoptimized-size"). With
+ * {@link #verbose} the progress of every phase is printed, as by {@link Test}; otherwise only diagnostics
+ * and the program output are. The time taken by each phase is recorded in the {@link Result}.
+ */
+class Pipeline {
+
+    static final String[] PHASES = {"parse", "check", "optimize", "codegen", "assemble", "run"};
+    static final int PARSE = 0, CHECK = 1, OPTIMIZE = 2, CODEGEN = 3, ASSEMBLE = 4, RUN = 5;
+
+    // flags selecting the options of a compilation, besides "--mem-size=N"
+    static final List<String> FLAGS = List.of("--run", "--jit", "--register", "--no-opt", "--no-inline", "--no-devirt",
+        "--no-tco", "--no-frame-cache", "--no-peephole", "--no-fuse", "--fixed-mem", "--emit-asm", "--emit-bin");
+
+    final boolean run, jit, register, optimize, inline, devirt, tco, frameCache, peephole, fuse;
+    final boolean fixedMem, emitAsm, emitBin, unoptimizedSize;
+    final int memSize;
+    boolean verbose;                    // print the progress of the phases
+    DeclarationCache declarationCache;  // of the results of declarations compiled before (null: not incremental)
+    CompileCache compileCache;          // of the code assembled before (null: no cache)
+
+    Pipeline(List<String> flags) {
+        run = flags.contains("--run");
+        jit = flags.contains("--jit");
+        register = flags.contains("--register");
+        optimize = !flags.contains("--no-opt");
+        inline = optimize && !flags.contains("--no-inline");
+        devirt = !flags.contains("--no-devirt");
+        tco = !flags.contains("--no-tco");
+        frameCache = !flags.contains("--no-frame-cache");
+        peephole = !flags.contains("--no-peephole");
+        fuse = !flags.contains("--no-fuse");
+        fixedMem = flags.contains("--fixed-mem");
+        emitAsm = flags.contains("--emit-asm");
+        emitBin = flags.contains("--emit-bin");
+        unoptimizedSize = flags.contains("--unoptimized-size");
+        int memSize = fixedMem ? ExecuteVM.MEMSIZE : ExecuteVM.MAX_MEMSIZE;
+        for (String flag : flags)
+            if (flag.startsWith("--mem-size=")) memSize = Integer.parseInt(flag.substring("--mem-size=".length()));
+        this.memSize = memSize;
+    }
+
+    /**
+     * Returns the first of the flags that is not an option of the pipeline (e.g. a misspelled one),
+     * null if there is none.
+     */
+    static String unsupported(List<String> flags) {
+        for (String flag : flags)
+            if (!FLAGS.contains(flag) && !flag.matches("--mem-size=[0-9]{1,9}")) return flag;
+        return null;
+    }
+
+    /**
+     * Outcome of the compilation of a file.
+     */
+    static class Result {
+        final Path file;
+        final long[] nanos = new long[PHASES.length]; // time spent in each phase
+        int errors;          // front-end errors
+        boolean cached;      // code read from the compile cache
+        Throwable failure;   // exception or error (e.g. StackOverflowError) that stopped the compilation (or the run)
+        String output = "";  // what the compilation printed
+
+        Result(Path file) {
+            this.file = file;
+        }
+    }
+
+    /**
+     * Compiles (and with "--run" runs) the file of the result, on the current thread, recording the
+     * time taken by each phase and the number of front-end errors; compilation stops at the first
+     * phase with errors.
+     */
+    void compile(Result result) throws Exception {
+        Path file = result.file;
+        String fileName = file.getFileName().toString();
+        long t = System.nanoTime();
+        String cacheKey = null;
+        if (compileCache != null && !register && !emitAsm) {
+            cacheKey = compileCache.key(Files.readAllBytes(file), CompileCache.options(optimize, inline, devirt, tco, frameCache, peephole, fuse));
+            ObjectFile cached = compileCache.get(cacheKey);
+            if (cached != null) {
+                result.cached = true;
+                log("Assembled code found in cache "+cacheKey+".\n");
+                if (emitBin) log("Assembled code written to file: "+writeObject(fileName, cached.code, cached.code.length, cached.labels)+"\n");
+                t = System.nanoTime();
+                if (run) {
+                    log("Running generated code via Stack Virtual Machine.");
+                    run(cached.code, cached.labels.values());
+                    lap(result, RUN, t);
+                }
+                return;
+            }
+        }
+
+        FOOLLexer lexer = new FOOLLexer(CharStreams.fromPath(file));
+        FOOLParser parser = new FOOLParser(new CommonTokenStream(lexer));
+        log("Generating ST via lexer and parser.");
+        FOOLParser.ProgContext st = FOOLlib.parse(parser, FOOLParser::prog); // SLL prediction, LL only if it fails
+        log("You had "+lexer.lexicalErrors+" lexical errors and "+parser.getNumberOfSyntaxErrors()+" syntax errors.\n");
+        t = lap(result, PARSE, t);
+
+        log("Generating AST.");
+        Node ast = new ASTGenerationSTVisitor().visit(st); // use true to visualize the ST
+        log("");
+
+        log("Enriching AST via symbol table.");
+        SymbolTableASTVisitor symTableVisitor = new SymbolTableASTVisitor();
+        symTableVisitor.visit(ast);
+        log("You had "+symTableVisitor.stErrors+" symbol table errors.\n");
+
+        if (verbose) {
+            log("Visualizing Enriched AST.");
+            new PrintEASTVisitor().visit(ast);
+            log("");
+        }
+
+        log("Checking Types.");
+        CompilationContext context = new CompilationContext(); // shared by the visitors of this compilation
+        List<DeclarationCache.Declaration> declarations = null;
+        try {
+            if (declarationCache != null && !register && ast instanceof ProgLetInNode
+                    && lexer.lexicalErrors + parser.getNumberOfSyntaxErrors() + symTableVisitor.stErrors == 0)
+                declarations = declarationCache.declarations((FOOLParser.LetInProgContext) st.progbody(), (ProgLetInNode) ast,
+                    "inline="+inline+" optimize="+optimize+" devirt="+devirt+" tco="+tco+" frameCache="+frameCache);
+            TypeCheckEASTVisitor typeCheckVisitor = new TypeCheckEASTVisitor(context);
+            typeCheckVisitor.declarations = declarations;
+            TypeNode mainType = typeCheckVisitor.visit(ast);
+            if (verbose) {
+                System.out.print("Type of main program expression is: ");
+                new PrintEASTVisitor().visit(mainType);
+            }
+        } catch (IncomplException e) {
+            log("Could not determine main program expression type due to errors detected before type checking.");
+        } catch (TypeException e) {
+            context.typeErrors++;
+            System.out.println("Type checking error in main program expression: "+e.text);
+        }
+        log("You had "+context.typeErrors+" type checking errors.\n");
+        result.errors = lexer.lexicalErrors + parser.getNumberOfSyntaxErrors() + symTableVisitor.stErrors + context.typeErrors;
+        log("You had a total of "+result.errors+" front-end errors.\n");
+        t = lap(result, CHECK, t);
+        if (result.errors > 0) return;
+
+        Node unoptimizedAst = ast;
+        if (inline) {
+            log("Inlining function calls.");
+            InliningASTVisitor inliningVisitor = new InliningASTVisitor();
+            inliningVisitor.devirtualization = devirt;
+            ast = inliningVisitor.visit(ast);
+            log("You had "+inliningVisitor.inlined+" inlined calls"
+                +(inliningVisitor.inlined > 0 ? " "+inliningVisitor.inlinedCalls : "")+".\n");
+        }
+        if (optimize) {
+            log("Optimizing AST.");
+            OptimizationASTVisitor optVisitor = new OptimizationASTVisitor();
+            ast = optVisitor.visit(ast);
+            log("You had "+optVisitor.folded+" constant folds, "+optVisitor.simplified+
+                " simplifications and "+optVisitor.pruned+" pruned branches.\n");
+        }
+        t = lap(result, OPTIMIZE, t);
+
+        if (register) {
+            log("Generating register machine code.");
+            RegisterCodeGenerationASTVisitor registerVisitor = new RegisterCodeGenerationASTVisitor(context);
+            registerVisitor.devirtualization = devirt;
+            RegisterCode code = registerVisitor.visit(ast);
+            if (emitAsm) log("Generated code written to file: "+writeAssembly(fileName + ".rasm", code));
+            log("");
+            t = lap(result, CODEGEN, t);
+
+            int[] assembled = code.assemble();
+            t = lap(result, ASSEMBLE, t);
+
+            if (run) {
+                log("Running generated code via Register Virtual Machine.");
+                new RegisterVM(assembled, memSize, !fixedMem).cpu();
+                lap(result, RUN, t);
+            }
+            return;
+        }
+
+        log("Generating code.");
+        // generated with a context of its own, so that it does not change the labels of the actual code
+        int unoptimizedInstructions = verbose && unoptimizedSize && ast != unoptimizedAst
+            ? instructions(new CodeGenerationASTVisitor(new CompilationContext()).visit(unoptimizedAst)) : -1;
+        CodeGenerationASTVisitor codeVisitor = new CodeGenerationASTVisitor(context);
+        codeVisitor.devirtualization = devirt;
+        codeVisitor.tailCallOptimization = tco;
+        codeVisitor.cacheFrames = frameCache;
+        codeVisitor.declarations = declarations;
+        Code code = codeVisitor.visit(ast);
+        if (verbose) {
+            log("Generated "+instructions(code)+" instructions"
+                +(unoptimizedInstructions >= 0 ? " ("+unoptimizedInstructions+" without AST optimization)." : "."));
+            if (codeVisitor.methodCalls > 0)
+                log("Devirtualized "+codeVisitor.devirtualized+" of "+codeVisitor.methodCalls+" method calls.");
+            if (codeVisitor.tailCalls > 0)
+                log("Compiled "+codeVisitor.tailCalls+" tail calls.");
+            if (codeVisitor.cachedFrames > 0)
+                log("Cached "+codeVisitor.cachedFrames+" outer frame pointers.");
+        }
+        if (peephole) {
+            Peephole optimizer = new Peephole();
+            optimizer.optimize(code);
+            if (verbose)
+                log("Peephole optimization: "+optimizer.rewrites()+" rewrites "+optimizer.hits()
+                    +", "+instructions(code)+" instructions left.");
+        }
+        if (emitAsm) log("Generated code written to file: "+writeAssembly(fileName + ".asm", code));
+        log("");
+        t = lap(result, CODEGEN, t);
+
+        log("Assembling generated code.");
+        Assembler assembler = new Assembler(fuse);
+        assembler.assembly(code);
+        if (emitBin) log("Assembled code written to file: "+writeObject(fileName, assembler.code, assembler.size(), assembler.labels()));
+        if (cacheKey != null) {
+            compileCache.put(cacheKey, assembler.code, assembler.size(), assembler.labels());
+            log("Assembled code added to cache "+cacheKey+".");
+        }
+        log("");
+        t = lap(result, ASSEMBLE, t);
+
+        if (run) {
+            log("Running generated code via Stack Virtual Machine.");
+            run(assembler.code, assembler.labels().values());
+            lap(result, RUN, t);
+        }
+    }
+
+    /**
+     * Runs assembled code (with the addresses of its labels, if known) on a VM with the memory of the flags,
+     * via the interpreter or, with "--jit", translated to JVM bytecode.
+     */
+    void run(int[] code, Collection<Integer> entryPoints) {
+        ExecuteVM vm = new ExecuteVM(code, memSize, !fixedMem);
+        if (!jit) vm.cpu();
+        else if (entryPoints.isEmpty()) vm.run(JitCompiler.compile(code));
+        else vm.run(JitCompiler.compile(code, entryPoints));
+    }
+
+    private void log(String line) {
+        if (verbose) System.out.println(line);
+    }
+
+    private static long lap(Result result, int phase, long start) {
+        long now = System.nanoTime();
+        result.nanos[phase] = now - start;
+        return now;
+    }
+
+    // writes the assembly text of the code to foolExamples/compiledASM ("--emit-asm")
+    private static Path writeAssembly(String name, InstructionList<?,?> code) throws IOException {
+        Path outputPath = Paths.get("./foolExamples/compiledASM/" + name);
+        Files.createDirectories(outputPath.getParent());
+        try (BufferedWriter out = Files.newBufferedWriter(outputPath)) {
+            code.print(out);
+        }
+        return outputPath;
+    }
+
+    // writes the assembled code to an object file in foolExamples/compiledSVM ("--emit-bin")
+    private static Path writeObject(String fileName, int[] code, int length, Map<String,Integer> labels) throws IOException {
+        Path objectPath = Paths.get("./foolExamples/compiledSVM/" + fileName + ".svm");
+        Files.createDirectories(objectPath.getParent());
+        ObjectFile.write(objectPath, code, length, labels);
+        return objectPath;
+    }
+
+    // number of instructions of the code, label definitions excluded
+    private static int instructions(Code code) {
+        int count = 0;
+        for (Instruction i : code) if (!i.isLabelDef()) count++;
+        return count;
+    }
+}
@@ -249,6 +249,13 @@ public class PrintEASTVisitor extends BaseEASTVisitor<Void,VoidException> {
 		return null;
 	}
 
+	@Override
+	public Void visitNode(FieldAccessNode n) {
+		printNode(n, n.id);
+		visit(n.object);
+		return null;
+	}
+
 	@Override
 	public Void visitSTentry(STentry entry) {
 		printSTentry("nestlev "+entry.nl);
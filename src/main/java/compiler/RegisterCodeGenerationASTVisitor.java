@@ -0,0 +1,469 @@
+package compiler;
+
+import compiler.AST.*;
+import compiler.lib.*;
+import compiler.exc.*;
+import compiler.svm.RegisterCode;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static compiler.lib.FOOLlib.*;
+import static compiler.svm.RegisterCode.*;
+import static compiler.svm.RegisterInstruction.*;
+
+/**
+ * Code generation for the register machine run by {@link compiler.svm.RegisterVM},
+ * companion of {@link CodeGenerationASTVisitor} with the same frame and object layout.
+ * <p>
+ * Parameters and declarations are the registers at their offset (e.g. a declaration at
+ * offset -2 is register -2), temporaries are allocated below the declarations as a stack:
+ * an expression is computed in register {@code next}, using the registers below it, and
+ * the visit sets {@code result} to the register holding its value, either {@code next}
+ * or the register of a parameter/declaration of the current frame (that is never copied).
+ */
+public class RegisterCodeGenerationASTVisitor extends BaseASTVisitor<RegisterCode, VoidException> {
+
+	private final List<List<String>> dispatchTables = new ArrayList<>();
+	// dispatch tables are the first thing allocated in the heap (from address 0), in class order,
+	// as in the stack machine
+	private final List<Integer> dispatchTableAddresses = new ArrayList<>();
+	private int dispatchTablesSize = 0;
+
+	private final RegisterCode funCode = new RegisterCode(); // code of functions and methods
+
+	// method calls whose method is known at compile time call it directly (devirtualization)
+	boolean devirtualization = true;
+	private ClassHierarchy hierarchy = new ClassHierarchy(List.of());
+	private String currentClass; // class whose methods are being generated
+	private final Map<MethodNode,String> methodLabels = new HashMap<>(); // labels are not kept in the AST
+
+	private int next;   // first free register of the current frame
+	private int lowest; // lowest register used by the current frame
+	private int result; // register holding the value of the last visited expression
+
+	private final CompilationContext context; // labels of the compilation
+
+  RegisterCodeGenerationASTVisitor() {this(new CompilationContext());}
+  RegisterCodeGenerationASTVisitor(CompilationContext context) {this.context = context;}
+  RegisterCodeGenerationASTVisitor(CompilationContext context, boolean debug) {super(false,debug); this.context = context;} //enables print for debugging
+
+	// register next, as the destination of an instruction
+	private int target() {
+		lowest = Math.min(lowest, next);
+		return next;
+	}
+
+	// visit of an expression whose value must be in register dst (equal to next)
+	private RegisterCode into(Node n, int dst) {
+		RegisterCode code = visit(n);
+		if (result == dst) return code;
+		RegisterCode move = op(MOV, target(), result);
+		result = dst;
+		return nlJoin(code, move);
+	}
+
+	// visit of the operands of a binary operator, in order, followed by the operator
+	private RegisterCode binary(int opcode, Node left, Node right) {
+		int saved = next;
+		RegisterCode leftCode = visit(left);
+		int l = result;
+		if (l == next) next--; // keep the left value while computing the right one
+		RegisterCode rightCode = visit(right);
+		int r = result;
+		next = saved;
+		result = next;
+		return nlJoin(leftCode, rightCode, op(opcode, target(), l, r));
+	}
+
+	/*
+	 * Code loading in register dst the address of the frame hops levels up the static chain
+	 * (the current frame if hops is 0), following the access links.
+	 */
+	private RegisterCode frame(int dst, int hops) {
+		if (hops == 0) return op(LFP, dst);
+		if (hops == 1) return op(MOV, dst, 0);
+		RegisterCode code = op(LW, dst, 0, 0);
+		for (int i = 2; i < hops; i++) code = nlJoin(code, op(LW, dst, dst, 0));
+		return code;
+	}
+
+	// code loading in register dst the value at offset of the frame hops levels up the static chain
+	private RegisterCode load(int dst, int hops, int offset) {
+		if (hops == 0) return op(MOV, dst, offset);
+		if (hops == 1) return op(LW, dst, 0, offset);
+		return nlJoin(
+			frame(dst, hops),
+			op(LW, dst, dst, offset)
+		);
+	}
+
+	/*
+	 * Code generation of a function or method with the given label: the frame size is known
+	 * after generating the body, then the enter instruction is prepended.
+	 */
+	private void function(String label, List<DecNode> decList, Node exp) {
+		int savedNext = next, savedLowest = lowest;
+		next = -2;
+		lowest = -1;
+		RegisterCode body = new RegisterCode();
+		for (Node dec : decList) {
+			body.append(into(dec, target()));
+			next--;
+		}
+		body.append(visit(exp));
+		body.append(op(RET, result));
+		funCode.append(nlJoin(
+			label(label),
+			op(ENTER, -lowest), // allocate declarations and temporaries
+			body
+		).separate());
+		next = savedNext;
+		lowest = savedLowest;
+	}
+
+	@Override
+	public RegisterCode visitNode(ProgLetInNode n) {
+		if (print) printNode(n);
+		hierarchy = new ClassHierarchy(devirtualization ? n.declist : List.of());
+		next = -2;
+		lowest = -1;
+		RegisterCode body = new RegisterCode();
+		for (Node dec : n.declist) {
+			body.append(into(dec, target())); // generate code for declarations (allocation)
+			next--;
+		}
+		body.append(visit(n.exp));
+		return nlJoin(
+			op(ENTER, -lowest),
+			body,
+			op(HALT),
+			funCode
+		);
+	}
+
+	@Override
+	public RegisterCode visitNode(ProgNode n) {
+		if (print) printNode(n);
+		next = -2;
+		lowest = -1;
+		RegisterCode body = visit(n.exp);
+		return nlJoin(
+			op(ENTER, -lowest),
+			body,
+			op(HALT)
+		);
+	}
+
+	@Override
+	public RegisterCode visitNode(FunNode n) {
+		if (print) printNode(n,n.id);
+		String funl = context.freshFunLabel();
+		function(funl, n.decList, n.exp);
+		result = next;
+		return ref(LI, funl, target());
+	}
+
+	@Override
+	public RegisterCode visitNode(VarNode n) {
+		if (print) printNode(n,n.id);
+		return visit(n.exp);
+	}
+
+	@Override
+	public RegisterCode visitNode(PrintNode n) {
+		if (print) printNode(n);
+		return nlJoin(
+			visit(n.exp),
+			op(PRINT, result)
+		);
+	}
+
+	@Override
+	public RegisterCode visitNode(IfNode n) {
+		if (print) printNode(n);
+		String l1 = context.freshLabel();
+		String l2 = context.freshLabel();
+		int dst = next;
+		RegisterCode condCode = visit(n.cond);
+		int cond = result;
+		return nlJoin(
+			condCode,
+			ref(BRONE, l1, cond),
+			into(n.el, dst),
+			ref(BRANCH, l2),
+			label(l1),
+			into(n.th, dst),
+			label(l2)
+		);
+	}
+
+	@Override
+	public RegisterCode visitNode(EqualNode n) {
+		if (print) printNode(n);
+		return binary(SEQ, n.left, n.right);
+	}
+
+	@Override
+	public RegisterCode visitNode(LessEqualNode n) {
+		if (print) printNode(n);
+		return binary(SLE, n.left, n.right);
+	}
+
+	public RegisterCode visitNode(GreaterEqualNode n) {
+		if (print) printNode(n);
+		return binary(SLE, n.right, n.left); // right operand evaluated first, as in the stack machine
+	}
+
+	@Override
+	public RegisterCode visitNode(NotNode n) {
+		if (print) printNode(n);
+		RegisterCode expCode = visit(n.exp);
+		int exp = result;
+		result = next;
+		return nlJoin(
+			expCode,
+			op(NOT, target(), exp)
+		);
+	}
+
+	@Override
+	public RegisterCode visitNode(AndNode n) {
+		if (print) printNode(n);
+		String l1 = context.freshLabel();
+		int dst = next;
+		return nlJoin(
+			into(n.left, dst),
+			ref(BRZERO, l1, dst), // right operand not evaluated if left is false
+			into(n.right, dst),
+			label(l1)
+		);
+	}
+
+	public RegisterCode visitNode(OrNode n) {
+		if (print) printNode(n);
+		String l1 = context.freshLabel();
+		int dst = next;
+		return nlJoin(
+			into(n.left, dst),
+			ref(BRONE, l1, dst), // right operand not evaluated if left is true
+			into(n.right, dst),
+			label(l1)
+		);
+	}
+
+	@Override
+	public RegisterCode visitNode(TimesNode n) {
+		if (print) printNode(n);
+		return binary(MULT, n.left, n.right);
+	}
+
+	public RegisterCode visitNode(DivNode n) {
+		if (print) printNode(n);
+		return binary(DIV, n.left, n.right);
+	}
+
+	@Override
+	public RegisterCode visitNode(PlusNode n) {
+		if (print) printNode(n);
+		if (n.right instanceof IntNode) {
+			RegisterCode leftCode = visit(n.left);
+			int left = result;
+			result = next;
+			return nlJoin(leftCode, op(ADDI, target(), left, ((IntNode) n.right).val));
+		}
+		return binary(ADD, n.left, n.right);
+	}
+
+	@Override
+	public RegisterCode visitNode(MinusNode n) {
+		if (print) printNode(n);
+		if (n.right instanceof IntNode) {
+			RegisterCode leftCode = visit(n.left);
+			int left = result;
+			result = next;
+			return nlJoin(leftCode, op(ADDI, target(), left, -((IntNode) n.right).val));
+		}
+		return binary(SUB, n.left, n.right);
+	}
+
+	/*
+	 * Code of a call: the result goes in register next, followed by the arguments (evaluated in
+	 * reversed order, as in the stack machine) and then the access link, at the base of the new frame.
+	 * Register fun is loaded by funLoad with the address of the code to call.
+	 */
+	// label of a method, assigned when first needed (by a direct call, or by its declaration)
+	private String methodLabel(MethodNode m) {
+		return methodLabels.computeIfAbsent(m, k -> context.freshFunLabel());
+	}
+
+	private RegisterCode call(List<Node> args, RegisterCode alLoad, RegisterCode funLoad, int fun) {
+		int saved = next;
+		int res = target();
+		int base = res - args.size() - 1;
+		RegisterCode argCode = null;
+		for (int i = args.size()-1; i >= 0; i--) {
+			next = base + 1 + i;
+			argCode = nlJoin(argCode, into(args.get(i), target()));
+		}
+		next = saved;
+		result = res;
+		return nlJoin(
+			argCode,
+			alLoad, // access link
+			funLoad,
+			op(CALL, res, fun, base)
+		);
+	}
+
+	@Override
+	public RegisterCode visitNode(CallNode n) {
+		if (print) printNode(n,n.id);
+		int hops = n.nl - n.entry.nl;
+		int base = next - n.arglist.size() - 1;
+		int fun = base - 1;
+		lowest = Math.min(lowest, fun);
+		RegisterCode funLoad;
+		MethodNode method = n.entry.offset >= 0 && currentClass != null ? hierarchy.target(currentClass, n.entry.offset) : null;
+		if (method != null) // method known at compile time
+			funLoad = ref(LI, methodLabel(method), fun);
+		else if (n.entry.offset >= 0) // method: address from the dispatch table of the object (the access link)
+			funLoad = nlJoin(op(LW, fun, base, 0), op(LW, fun, fun, n.entry.offset));
+		else if (hops == 0) {
+			funLoad = null; // declared in the current frame
+			fun = n.entry.offset;
+		} else
+			funLoad = op(LW, fun, base, n.entry.offset);
+		return call(n.arglist, frame(base, hops), funLoad, fun);
+	}
+
+	@Override
+	public RegisterCode visitNode(IdNode n) {
+		if (print) printNode(n,n.id);
+		int hops = n.nl - n.entry.nl;
+		if (hops == 0) { // parameter or declaration of the current frame
+			result = n.entry.offset;
+			return null;
+		}
+		result = next;
+		return load(target(), hops, n.entry.offset);
+	}
+
+	@Override
+	public RegisterCode visitNode(BoolNode n) {
+		if (print) printNode(n,n.val.toString());
+		result = next;
+		return op(LI, target(), n.val?1:0);
+	}
+
+	@Override
+	public RegisterCode visitNode(IntNode n) {
+		if (print) printNode(n,n.val.toString());
+		result = next;
+		return op(LI, target(), n.val);
+	}
+
+	// OBJECT-ORIENTED EXTENSION
+	@Override
+	public RegisterCode visitNode(ClassNode n) {
+		if (print) printNode(n,n.id);
+		List<String> dispatchTable = new ArrayList<>();
+		dispatchTables.add(dispatchTable);
+		dispatchTableAddresses.add(dispatchTablesSize);
+		if (n.superId != null) {
+			List<String> superMethods = dispatchTables.get(-n.superEntry.offset - 2);
+			dispatchTable.addAll(superMethods);
+		}
+
+		currentClass = n.id;
+		for (MethodNode method : n.methodList) {
+			visit(method);
+			if (method.offset < dispatchTable.size()) dispatchTable.set(method.offset, methodLabel(method));
+			else dispatchTable.add(method.offset, methodLabel(method));
+		}
+		currentClass = null;
+
+		dispatchTablesSize += dispatchTable.size();
+
+		int dst = target();
+		next--;
+		int method = target();
+		next++;
+		RegisterCode dispatchTableCode = null;
+		for (String label : dispatchTable)
+			dispatchTableCode = nlJoin(
+				dispatchTableCode,
+				ref(LI, label, method),
+				op(SWHP, method) // store the method address in the heap, incrementing hp
+			);
+
+		result = dst;
+		return nlJoin(
+			op(LHP, dst), // dispatch table address
+			dispatchTableCode
+		);
+	}
+
+	@Override
+	public RegisterCode visitNode(MethodNode n) {
+		if (print) printNode(n,n.id);
+		function(methodLabel(n), n.decList, n.exp);
+		return null;
+	}
+
+	@Override
+	public RegisterCode visitNode(EmptyNode n) {
+		if (print) printNode(n);
+		result = next;
+		return op(LI, target(), -1);
+	}
+
+	@Override
+	public RegisterCode visitNode(FieldAccessNode n) {
+		if (print) printNode(n, n.id);
+		int dst = target();
+		RegisterCode objectCode = visit(n.object); // object pointer
+		int object = result;
+		result = dst;
+		return nlJoin(objectCode, op(LW, dst, object, n.offset));
+	}
+
+	@Override
+	public RegisterCode visitNode(ClassCallNode n) {
+		if (print) printNode(n, n.refId+"."+n.methodId);
+		int hops = n.nestingLevel - n.classEntry.nl;
+		int base = next - n.argList.size() - 1;
+		int fun = base - 1;
+		lowest = Math.min(lowest, fun);
+		MethodNode method = hierarchy.target(n);
+		return call(n.argList, load(base, hops, n.classEntry.offset), // object pointer
+			method != null ? nlJoin(op(LW, fun, base, 0), ref(LI, methodLabel(method), fun)) // method known at compile time
+				// (after loading the dispatch pointer, so that a null object fails as in other calls)
+				: nlJoin(op(LW, fun, base, 0), op(LW, fun, fun, n.methodEntry.offset)), // method address
+			fun);
+	}
+
+	@Override
+	public RegisterCode visitNode(NewNode n) {
+		if (print) printNode(n,n.id);
+		int saved = next;
+		int first = target();
+		int size = n.argList.size();
+		RegisterCode argValueCode = null;
+		for (int i = 0; i < size; i++) {
+			next = first - i;
+			argValueCode = nlJoin(argValueCode, into(n.argList.get(i), target()));
+		}
+		next = first - size;
+		RegisterCode newCode = nlJoin(
+			argValueCode,
+			op(LI, target(), dispatchTableAddresses.get(-n.entry.offset - 2)), // dispatch pointer
+			op(NEW, first, first, size)
+		);
+		next = saved;
+		result = first;
+		return newCode;
+	}
+}
@@ -89,6 +89,7 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void,VoidException> {
 
 		// Creo un STentry con: nesting level, Tipo e Offset
 		STentry entry = new STentry(nestingLevel, new ArrowTypeNode(parTypes,n.retType),decOffset--);
+		n.entry = entry;
 
 		// Inserisco il mio ID + entry nella SymbolTable
 		if (hm.put(n.id, entry) != null) {
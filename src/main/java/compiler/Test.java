@@ -1,15 +1,11 @@
 package compiler;
 
-import java.io.*;
-import java.nio.*;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
-import org.antlr.v4.runtime.*;
-import org.antlr.v4.runtime.tree.*;
-import compiler.lib.*;
-import compiler.exc.*;
 import compiler.svm.*;
 
 public class Test {
@@ -20,6 +16,35 @@ public class Test {
             System.out.println("Error: Missing input file name.");
             System.exit(1);
         }
+        // Optional "--batch" flag: compile all the given files and directories in the same JVM (see BatchCompiler)
+        if (Arrays.asList(args).contains("--batch")) {
+            BatchCompiler.main(args);
+            return;
+        }
+        // Optional "--server" flag: serve compile and run requests read from stdin (see CompileServer)
+        if (Arrays.asList(args).contains("--server")) {
+            CompileServer.main(args);
+            return;
+        }
+        // Flags selecting the options of the compilation (see Pipeline):
+        // "--emit-asm": also write the generated code to an .asm file
+        // "--emit-bin": also write the assembled code to an .svm object file
+        // "--fixed-mem": allocate the whole VM memory upfront instead of growing it on demand
+        // "--no-fuse": do not fuse instruction sequences into superinstructions when assembling
+        // "--jit": run the code translated to JVM bytecode (see JitCompiler)
+        // "--register": generate code for the register machine and run it on RegisterVM
+        // "--no-opt": do not optimize the AST before generating code (see OptimizationASTVisitor)
+        // "--no-inline": do not inline calls to small functions (see InliningASTVisitor)
+        // "--no-devirt": call methods through the dispatch table even when known at compile time (see ClassHierarchy)
+        // "--no-peephole": do not run the peephole optimizer on the generated code (see Peephole)
+        // "--no-tco": compile calls in tail position as ordinary calls (see CodeGenerationASTVisitor.tailCall)
+        // "--no-frame-cache": always follow the static chain to outer frames (see CodeGenerationASTVisitor.frameCache)
+        // "--unoptimized-size": also generate code for the AST before optimization and report its size
+        // "--mem-size=N": VM memory size (default: ExecuteVM.MEMSIZE if fixed, ExecuteVM.MAX_MEMSIZE if growable)
+        List<String> flags = new ArrayList<>(Arrays.asList(args));
+        flags.add("--run"); // the compiled program is always run
+        Pipeline pipeline = new Pipeline(flags);
+        pipeline.verbose = true;
         Path baseDir = Paths.get(".").toAbsolutePath().normalize();
         String inputFile = args[0];
         Path inputFilePath = baseDir.resolve(inputFile).normalize();
@@ -28,79 +53,26 @@ public class Test {
         }
         String fileName = inputFilePath.getFileName().toString();
 
-        // Output file path
-        Path outputPath = Paths.get("./foolExamples/compiledASM/" + fileName + ".asm");
-        if (outputPath.getParent() != null) {
-            Files.createDirectories(outputPath.getParent());
+        // Precompiled object file: run it directly
+        if (fileName.endsWith(".svm")) {
+        	System.out.println("Running object file via Stack Virtual Machine.");
+        	ObjectFile object = ObjectFile.read(inputFilePath);
+        	pipeline.run(object.code, object.labels.values());
+        	return;
         }
-        String outputFilePath = outputPath.toString();
-
-        CharStream chars = CharStreams.fromFileName(inputFile);
-    	FOOLLexer lexer = new FOOLLexer(chars);
-    	CommonTokenStream tokens = new CommonTokenStream(lexer);
-    	FOOLParser parser = new FOOLParser(tokens);
-
-    	System.out.println("Generating ST via lexer and parser.");
-    	ParseTree st = parser.prog();
-    	System.out.println("You had "+lexer.lexicalErrors+" lexical errors and "+
-    		parser.getNumberOfSyntaxErrors()+" syntax errors.\n");
-
-    	System.out.println("Generating AST.");
-    	ASTGenerationSTVisitor visitor = new ASTGenerationSTVisitor(); // use true to visualize the ST
-    	Node ast = visitor.visit(st);
-    	System.out.println();
-
-    	System.out.println("Enriching AST via symbol table.");
-    	SymbolTableASTVisitor symTableVisitor = new SymbolTableASTVisitor();
-    	symTableVisitor.visit(ast);
-    	System.out.println("You had "+symTableVisitor.stErrors+" symbol table errors.\n");
-
-    	System.out.println("Visualizing Enriched AST.");
-    	new PrintEASTVisitor().visit(ast);
-    	System.out.println();
 
-    	System.out.println("Checking Types.");
-    	try {
-    		TypeCheckEASTVisitor typeCheckVisitor = new TypeCheckEASTVisitor();
-    		TypeNode mainType = typeCheckVisitor.visit(ast);
-    		System.out.print("Type of main program expression is: ");
-    		new PrintEASTVisitor().visit(mainType);
-    	} catch (IncomplException e) {    		
-    		System.out.println("Could not determine main program expression type due to errors detected before type checking.");
-    	} catch (TypeException e) {
-    		System.out.println("Type checking error in main program expression: "+e.text); 
-    	}       	
-    	System.out.println("You had "+FOOLlib.typeErrors+" type checking errors.\n");
-
-    	int frontEndErrors = lexer.lexicalErrors+parser.getNumberOfSyntaxErrors()+symTableVisitor.stErrors+FOOLlib.typeErrors;
-		System.out.println("You had a total of "+frontEndErrors+" front-end errors.\n");
-		
-		if ( frontEndErrors > 0) System.exit(1);   
-
-    	System.out.println("Generating code.");
-    	String code = new CodeGenerationASTVisitor().visit(ast);        
-    	BufferedWriter out = new BufferedWriter(new FileWriter(outputFilePath));
-    	out.write(code);
-    	out.close();
-        System.out.println("Generated code written to file: "+outputFilePath);
-        System.out.println();
-
-    	System.out.println("Assembling generated code.");
-    	CharStream charsASM = CharStreams.fromFileName(outputFilePath);
-    	SVMLexer lexerASM = new SVMLexer(charsASM);
-    	CommonTokenStream tokensASM = new CommonTokenStream(lexerASM);
-    	SVMParser parserASM = new SVMParser(tokensASM);
-
-    	parserASM.assembly();
-
-    	// needed only for debug
-    	System.out.println("You had: "+lexerASM.lexicalErrors+" lexical errors and "+parserASM.getNumberOfSyntaxErrors()+" syntax errors.\n");
-    	if (lexerASM.lexicalErrors+parserASM.getNumberOfSyntaxErrors()>0) System.exit(1);
+        // Assembly text (e.g. written by "--emit-asm"): assemble it in a single pass and run it
+        if (fileName.endsWith(".asm")) {
+        	System.out.println("Running assembly file via Stack Virtual Machine.");
+        	pipeline.run(AssemblyLoader.load(inputFilePath), List.of());
+        	return;
+        }
 
-    	System.out.println("Running generated code via Stack Virtual Machine.");
-		ExecuteVM vm = new ExecuteVM(parserASM.code);
-    	vm.cpu();
+        // Optional "--cache=DIR" flag (and "--cache-size=N"): reuse the code assembled for the same source (see CompileCache)
+        pipeline.compileCache = CompileCache.fromArgs(args);
 
+        Pipeline.Result result = new Pipeline.Result(inputFilePath);
+        pipeline.compile(result);
+        if (result.errors > 0) System.exit(1);
     }
 }
-
@@ -4,7 +4,8 @@ import compiler.AST.*;
 import compiler.exc.*;
 import compiler.lib.*;
 
-import static compiler.TypeRels.*;
+import java.util.List;
+
 
 //visitNode(n) fa il type checking di un Node n e ritorna:
 //- per una espressione, il suo tipo (oggetto BoolTypeNode o IntTypeNode)
@@ -14,8 +15,24 @@ import static compiler.TypeRels.*;
 //visitSTentry(s) ritorna, per una STentry s, il tipo contenuto al suo interno
 public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode,TypeException> {
 
-	TypeCheckEASTVisitor() { super(true); } // enables incomplete tree exceptions 
-	TypeCheckEASTVisitor(boolean debug) { super(true,debug); } // enables print for debugging
+	private final CompilationContext context; // type errors and class hierarchy of the compilation
+	private final TypeRels rels;
+
+	// results of the top-level declarations kept by a DeclarationCache, by position (null: not incremental):
+	// declarations that already type checked are not visited again
+	List<DeclarationCache.Declaration> declarations;
+
+	TypeCheckEASTVisitor() { this(new CompilationContext()); }
+	TypeCheckEASTVisitor(CompilationContext context) { super(true); this.context = context; rels = new TypeRels(context.superType); } // enables incomplete tree exceptions 
+	TypeCheckEASTVisitor(CompilationContext context, boolean debug) { super(true,debug); this.context = context; rels = new TypeRels(context.superType); } // enables print for debugging
+
+	private boolean isSubtype(TypeNode a, TypeNode b) {
+		return rels.isSubtype(a, b);
+	}
+
+	private TypeNode lowestCommonAncestor(TypeNode a, TypeNode b) {
+		return rels.lowestCommonAncestor(a, b);
+	}
 
 	//checks that a type object is visitable (not incomplete) 
 	private TypeNode ckvisit(TypeNode t) throws TypeException {
@@ -26,13 +43,21 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode,TypeException
 	@Override
 	public TypeNode visitNode(ProgLetInNode n) throws TypeException {
 		if (print) printNode(n);
-		for (Node dec : n.declist)
+		for (int i = 0; i < n.declist.size(); i++) {
+			DecNode dec = n.declist.get(i);
+			if (declarations != null && declarations.get(i).typeChecked) {
+				if (dec instanceof ClassNode c && c.superId != null) context.superType.put(c.id, c.superId);
+				continue;
+			}
 			try {
 				visit(dec);
+				if (declarations != null) declarations.get(i).typeChecked = true;
 			} catch (IncomplException e) { 
 			} catch (TypeException e) {
+				context.typeErrors++;
 				System.out.println("Type checking error in a declaration: " + e.text);
 			}
+		}
 		return visit(n.exp);
 	}
 
@@ -50,6 +75,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode,TypeException
 				visit(dec);
 			} catch (IncomplException e) { 
 			} catch (TypeException e) {
+				context.typeErrors++;
 				System.out.println("Type checking error in a declaration: " + e.text);
 			}
 		if ( !isSubtype(visit(n.exp),ckvisit(n.retType)) ) 
@@ -241,7 +267,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode,TypeException
 	public TypeNode visitNode(ClassNode n) throws TypeException {
 		if (print) printNode(n, n.id);
 		if (n.superId != null) {
-			TypeRels.superType.put(n.id, n.superId);
+			context.superType.put(n.id, n.superId);
 		}
 
 		for (MethodNode method : n.methodList) {
@@ -279,6 +305,7 @@ public class TypeCheckEASTVisitor extends BaseEASTVisitor<TypeNode,TypeException
 				visit(dec);
 			} catch (IncomplException e) {
 			} catch (TypeException e) {
+				context.typeErrors++;
 				System.out.println("Type checking error in a declaration: " + e.text);
 			}
 		}
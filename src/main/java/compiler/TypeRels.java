@@ -3,7 +3,6 @@ package compiler;
 import compiler.AST.*;
 import compiler.lib.*;
 
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -12,9 +11,16 @@ public class TypeRels {
 	/**
 	 * Maps a class name to its super-class name.
 	 */
-	public static Map<String,String> superType =  new HashMap<String,String>();
+	private final Map<String,String> superType;
 
-	public static boolean isSubtype(TypeNode a, TypeNode b) {
+	/**
+	 * Type relations over the class hierarchy of a compilation ({@link CompilationContext#superType}).
+	 */
+	public TypeRels(Map<String,String> superType) {
+		this.superType = superType;
+	}
+
+	public boolean isSubtype(TypeNode a, TypeNode b) {
 		return isSubClass(a, b)
 				|| isSubFunc(a, b)
 				|| (!areRefType(a, b) && a.getClass().equals(b.getClass()))
@@ -22,14 +28,14 @@ public class TypeRels {
 				|| ((a instanceof EmptyTypeNode) && (b instanceof RefTypeNode));
 	}
 
-	private static boolean isSubFunc(TypeNode a, TypeNode b) {
+	private boolean isSubFunc(TypeNode a, TypeNode b) {
 		return (a instanceof ArrowTypeNode)
 				&& (b instanceof ArrowTypeNode)
 				&& isSubtype(((ArrowTypeNode) a).ret, ((ArrowTypeNode) b).ret)
 				&& paramsCheck((((ArrowTypeNode) a).parlist), ((ArrowTypeNode) b).parlist);
 	}
 
-	private static boolean paramsCheck(List<TypeNode> params1, List<TypeNode> params2) {
+	private boolean paramsCheck(List<TypeNode> params1, List<TypeNode> params2) {
 		if  (params1.size() != params2.size())
 			return false;
 		for (int i = 0; i < params1.size(); i++) {
@@ -39,16 +45,16 @@ public class TypeRels {
 		return true;
 	}
 
-	private static boolean isSuperType(TypeNode a, TypeNode b) {
+	private boolean isSuperType(TypeNode a, TypeNode b) {
 		return isSubtype(b, a);
 	}
 
-	private static boolean isSubClass(TypeNode a, TypeNode b) {
+	private boolean isSubClass(TypeNode a, TypeNode b) {
 		return areRefType(a, b)
 				&& recursiveSubClass(((RefTypeNode) a).id, ((RefTypeNode) b).id);
 	}
 
-	private static boolean recursiveSubClass(String id1, String id2) {
+	private boolean recursiveSubClass(String id1, String id2) {
 		if(id1.equals(id2))
 			return true;
 		if (!superType.containsKey(id1))
@@ -56,7 +62,7 @@ public class TypeRels {
 		return recursiveSubClass(superType.get(id1), id2);
 	}
 
-	public static TypeNode lowestCommonAncestor(TypeNode a, TypeNode b) {
+	public TypeNode lowestCommonAncestor(TypeNode a, TypeNode b) {
 		if (isSubtype(a, b)) return b;
 		if (isSubtype(b, a)) return a;
 
@@ -72,7 +78,7 @@ public class TypeRels {
 		return null;
 	}
 
-	private static boolean areRefType(TypeNode a, TypeNode b) {
+	private boolean areRefType(TypeNode a, TypeNode b) {
 		return (a instanceof RefTypeNode) && (b instanceof RefTypeNode);
 	}
 }
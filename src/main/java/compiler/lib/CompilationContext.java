@@ -0,0 +1,65 @@
+package compiler.lib;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import compiler.svm.Code;
+
+/**
+ * State of a single compilation, shared by the visitors running it
+ * ({@code TypeCheckEASTVisitor} and the code generators):
+ * type errors, label counters, code of the functions and subclass relation.
+ * <p>
+ * No state is static: distinct compilations, each with its own context, can run
+ * in parallel and produce the same code (labels included) as when run alone.
+ * A context is not thread-safe: a compilation is run by a single thread.
+ */
+public class CompilationContext {
+
+	public int typeErrors = 0;
+
+	// class name -> name of its superclass (recorded by the type checker)
+	public final Map<String,String> superType = new HashMap<>();
+
+	private String labelPrefix = "";
+	private int labCount = 0;
+	private int funlabCount = 0;
+	private Code funCode = new Code(); // code of functions and methods, appended after the program
+
+	public String freshLabel() {
+		return labelPrefix+"label"+(labCount++);
+	}
+
+	public String freshFunLabel() {
+		return labelPrefix+"function"+(funlabCount++);
+	}
+
+	/**
+	 * Makes the labels generated from now on start with prefix, numbering them again from 0:
+	 * the labels of the code of a declaration then depend only on the declaration
+	 * (incremental compilation, {@code DeclarationCache}). Distinct prefixes, also distinct
+	 * from the initial empty one, give distinct labels.
+	 */
+	public void labelPrefix(String prefix) {
+		labelPrefix = prefix;
+		labCount = 0;
+		funlabCount = 0;
+	}
+
+	public void putCode(Code c) {
+		if (c != null) funCode.append(c.separate());
+	}
+
+	public Code getCode() {
+		return funCode;
+	}
+
+	/**
+	 * Returns the code of functions and methods collected so far, starting again from empty code.
+	 */
+	public Code takeCode() {
+		Code c = funCode;
+		funCode = new Code();
+		return c;
+	}
+}
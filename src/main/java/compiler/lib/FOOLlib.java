@@ -1,5 +1,16 @@
 package compiler.lib;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
+
+import compiler.svm.Code;
+import compiler.svm.RegisterCode;
+
 public class FOOLlib {
 
 	public static String extractNodeName(String s) { // s is in the form compiler.AST$NameNode
@@ -14,36 +25,38 @@ public class FOOLlib {
     	return Character.toLowerCase(s.charAt(0))+s.substring(1,s.length());
     }
     
-	public static int typeErrors = 0;
-
-	// crea un'unica stringa a partire da un insieme di stringhe concatenadole e 
-	// introducendo, all'interno, dei newline "\n" come separatore tra le stringhe
-	public static String nlJoin(String... lines) { //argomenti null ignorati 
-		String code = null;
-		for (int i = 0; i<lines.length; i++) 
-			if (lines[i]!=null) code = (code==null?"":code+"\n")+lines[i]; 
-		return code;
-	}
-
-	private static int labCount = 0;
-
-	public static String freshLabel() {
-		return "label"+(labCount++);
+	// joins, in the given order, code fragments into a single fragment
+	// (in constant time per fragment: the joined fragments are left empty)
+	public static Code nlJoin(Code... fragments) { // null arguments are ignored
+		return new Code().append(fragments);
 	}
 
-	private static int funlabCount = 0;
-
-	public static String freshFunLabel() {
-		return "function"+(funlabCount++);
-	}
-
-	private static String funCode = null;
-
-	public static void putCode(String c) {
-		funCode = nlJoin(funCode, "", c); //linea vuota di separazione prima di codice funzione
+	public static RegisterCode nlJoin(RegisterCode... fragments) { // null arguments are ignored
+		return new RegisterCode().append(fragments);
 	}
 
-	public static String getCode() {
-		return funCode;
+	// runs the parser rule in two stages: first with SLL prediction, which is faster, stopping at
+	// the first error without reporting it (BailErrorStrategy); if it fails (syntax error, or input
+	// requiring full LL prediction) it starts again from the first token with LL prediction and the
+	// error handling of the parser. The result is the same as with LL prediction alone; if rule has
+	// actions, the rule must reset the state of the parser (@init) so that the second stage starts afresh
+	public static <P extends Parser,T> T parse(P parser, Function<P,T> rule) {
+		ANTLRErrorStrategy errorHandler = parser.getErrorHandler();
+		List<ANTLRErrorListener> listeners = new ArrayList<>(parser.getErrorListeners());
+		PredictionMode mode = parser.getInterpreter().getPredictionMode();
+		parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+		parser.setErrorHandler(new BailErrorStrategy());
+		parser.removeErrorListeners();
+		T result = null;
+		try {
+			result = rule.apply(parser);
+		} catch (ParseCancellationException e) {
+		}
+		parser.getInterpreter().setPredictionMode(mode);
+		parser.setErrorHandler(errorHandler);
+		for (ANTLRErrorListener listener : listeners) parser.addErrorListener(listener);
+		if (result != null) return result;
+		parser.reset(); // first token, no errors
+		return rule.apply(parser);
 	}
 }
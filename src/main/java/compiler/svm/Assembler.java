@@ -0,0 +1,154 @@
+package compiler.svm;
+
+import java.util.*;
+
+/**
+ * In-memory assembler for the Stack Virtual Machine.
+ * <p>
+ * Translates the {@link Code} produced by the code generator straight into the
+ * {@code int[]} code consumed by {@link ExecuteVM}, without writing it to a file and
+ * re-lexing/re-parsing it through {@link SVMLexer} and {@link SVMParser}.
+ * <p>
+ * Unless disabled, idiomatic instruction sequences are fused into superinstructions
+ * (never across a label definition, which could be a jump target):
+ * <pre>
+ * lfp; push k; add; lw     -&gt;  lloc k    (load local/parameter k of the current frame)
+ * lhp; push 1; add; shp    -&gt;  ihp       (increment hp)
+ * push 0; beq l            -&gt;  bzero l   (branch if false)
+ * push 1; beq l            -&gt;  bone l    (branch if true)
+ * lw; push k; add; lw; js  -&gt;  jsm k     (call method k of the object, through an inline cache)
+ * lw; lw; js               -&gt;  jsm 0     (the same for method 0, once the peephole drops push 0; add)
+ * </pre>
+ * The last sequences are emitted by the code generator only for method calls, with the object
+ * pointer on top of the stack: {@code jsm} reads its dispatch pointer and caches, at each call
+ * site, the method address found at offset k of the dispatch table (see {@link ExecuteVM}).
+ * Without fusion the produced code is identical to {@code SVMParser.code} for the printed assembly.
+ */
+public class Assembler {
+
+    public int[] code = new int[ExecuteVM.CODESIZE];
+    private int i = 0;
+    private Map<String,Integer> labelDef = new HashMap<>();
+    private Map<Integer,String> labelRef = new HashMap<>();
+    private final boolean superinstructions;
+
+    public Assembler() {
+        this(true);
+    }
+
+    /**
+     * @param superinstructions whether to fuse instruction sequences into superinstructions
+     */
+    public Assembler(boolean superinstructions) {
+        this.superinstructions = superinstructions;
+    }
+
+    /**
+     * Assembles generated code.
+     *
+     * @param program the SVM code
+     * @return the code array to be run by {@link ExecuteVM}
+     */
+    public static int[] assemble(Code program) {
+        return assemble(program, true);
+    }
+
+    public static int[] assemble(Code program, boolean superinstructions) {
+        Assembler assembler = new Assembler(superinstructions);
+        assembler.assembly(program);
+        return Arrays.copyOf(assembler.code, assembler.i);
+    }
+
+    public void assembly(Code program) {
+        Instruction ins = program.first();
+        while (ins != null) {
+            int fused = superinstructions ? fuse(ins) : 0;
+            if (fused == 0) instruction(ins);
+            for (int j = Math.max(fused, 1); j > 0; j--) ins = ins.next;
+        }
+        for (Integer j: labelRef.keySet()) {
+            Integer address = labelDef.get(labelRef.get(j));
+            if (address == null)
+                throw new IllegalArgumentException("Undefined label "+labelRef.get(j));
+            code[j] = address;
+        }
+    }
+
+    /**
+     * Returns the number of code words produced so far.
+     */
+    public int size() {
+        return i;
+    }
+
+    /**
+     * Returns the address of every label defined so far.
+     */
+    public Map<String,Integer> labels() {
+        return Collections.unmodifiableMap(labelDef);
+    }
+
+    /*
+     * Emits a superinstruction for the sequence starting at ins, if any.
+     * Returns the number of fused instructions, 0 if none.
+     */
+    private int fuse(Instruction ins) {
+        Instruction i2 = ins.next;
+        Instruction i3 = i2 != null ? i2.next : null;
+        Instruction i4 = i3 != null ? i3.next : null;
+        Instruction i5 = i4 != null ? i4.next : null;
+        switch (ins.opcode) {
+            case SVMParser.LOADFP:
+                if (isPush(i2) && is(i3, SVMParser.ADD) && is(i4, SVMParser.LOADW)) {
+                    instruction(new Instruction(SVMParser.LOADLOCAL, i2.arg, null));
+                    return 4;
+                }
+                break;
+            case SVMParser.LOADW:
+                if (isPush(i2) && is(i3, SVMParser.ADD) && is(i4, SVMParser.LOADW) && is(i5, SVMParser.JS)) {
+                    instruction(new Instruction(SVMParser.CALLMETHOD, i2.arg, null));
+                    return 5;
+                }
+                if (is(i2, SVMParser.LOADW) && is(i3, SVMParser.JS)) {
+                    instruction(new Instruction(SVMParser.CALLMETHOD, 0, null));
+                    return 3;
+                }
+                break;
+            case SVMParser.LOADHP:
+                if (isPush(i2) && i2.arg == 1 && is(i3, SVMParser.ADD) && is(i4, SVMParser.STOREHP)) {
+                    instruction(new Instruction(SVMParser.HPINC, 0, null));
+                    return 4;
+                }
+                break;
+            case SVMParser.PUSH:
+                if (isPush(ins) && (ins.arg == 0 || ins.arg == 1) && is(i2, SVMParser.BRANCHEQ)) {
+                    instruction(new Instruction(ins.arg == 0 ? SVMParser.BRZERO : SVMParser.BRONE, 0, i2.label));
+                    return 2;
+                }
+                break;
+        }
+        return 0;
+    }
+
+    private static boolean is(Instruction ins, int opcode) {
+        return ins != null && ins.opcode == opcode;
+    }
+
+    // push of an integer (not of a label)
+    private static boolean isPush(Instruction ins) {
+        return is(ins, SVMParser.PUSH) && ins.label == null;
+    }
+
+    private void instruction(Instruction ins) {
+        if (ins.isLabelDef()) {
+            labelDef.put(ins.label, i);
+            return;
+        }
+        if (i+2 > code.length) code = Arrays.copyOf(code, 2*code.length); // grow code array as needed
+        code[i++] = ins.opcode;
+        if (ins.hasOperand()) {
+            if (ins.label != null) labelRef.put(i++, ins.label);
+            else code[i++] = ins.arg;
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package compiler.svm;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Arrays;
+
+/**
+ * Assembler of SVM assembly text (as printed by {@link Code#print}), producing the same code array
+ * as {@link SVMParser#code} in a single pass over the bytes of the text, e.g. a memory-mapped .asm
+ * file, with no token stream, parse tree or string allocated per instruction.
+ * <p>
+ * Mnemonics are those of the SVM grammar (taken from {@link SVMLexer#VOCABULARY}), looked up packed
+ * in a long. Labels are interned into int ids by an open-addressing table over their bytes; the uses
+ * of a label are chained through the code words that will hold its address (each one holds the
+ * position of the previous use, -1 ending the chain) and patched in place at the end, with the
+ * address of the last definition of the label, as SVMParser does.
+ * <p>
+ * Unlike SVMParser, which reports lexical and syntax errors and goes on, text with errors is rejected
+ * with an IOException giving the line, as is text using undefined labels.
+ */
+public class AssemblyLoader {
+
+    private static final long[] MNEMONICS; // packed (see pack), sorted
+    private static final int[] OPCODES;    // opcode of each mnemonic
+
+    static {
+        long[] mnemonics = new long[SVMLexer.VOCABULARY.getMaxTokenType()+1];
+        int n = 0;
+        for (int t = 1; t < mnemonics.length; t++) {
+            String literal = SVMLexer.VOCABULARY.getLiteralName(t); // in the form 'push'
+            if (literal != null && Character.isLetter(literal.charAt(1))) {
+                byte[] bytes = literal.substring(1, literal.length()-1).getBytes();
+                mnemonics[n++] = pack(bytes, 0, bytes.length) << 8 | t; // opcode in the lowest byte, for sorting
+            }
+        }
+        mnemonics = Arrays.copyOf(mnemonics, n);
+        Arrays.sort(mnemonics);
+        MNEMONICS = new long[n];
+        OPCODES = new int[n];
+        for (int i = 0; i < n; i++) {
+            MNEMONICS[i] = mnemonics[i] >>> 8;
+            OPCODES[i] = (int) (mnemonics[i] & 0xFF);
+        }
+    }
+
+    private final ByteBuffer text;
+    private final int limit;
+    private int pos;
+    private int line = 1;
+
+    private int[] code = new int[ExecuteVM.CODESIZE];
+    private int size = 0;
+
+    // labels, by id
+    private int labels = 0;
+    private int[] nameStarts = new int[64];   // position of the name in the text
+    private int[] nameLengths = new int[64];
+    private int[] definitions = new int[64];  // address, -1 if not defined
+    private int[] uses = new int[64];         // position of the last use, -1 if none
+    private int[] table = new int[128];       // by name hash: id+1, 0 if empty
+
+    private AssemblyLoader(ByteBuffer text) {
+        this.text = text;
+        this.pos = text.position();
+        this.limit = text.limit();
+    }
+
+    /**
+     * Assembles a file of SVM assembly text, by memory-mapping it.
+     */
+    public static int[] load(Path asmFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(asmFile, StandardOpenOption.READ)) {
+            return load(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Assembles the SVM assembly text between the position and the limit of a buffer.
+     */
+    public static int[] load(ByteBuffer text) throws IOException {
+        return new AssemblyLoader(text).assemble();
+    }
+
+    private int[] assemble() throws IOException {
+        while (skipBlanks()) {
+            if (size+2 > code.length) code = Arrays.copyOf(code, 2*code.length); // as SVMParser
+            int start = pos;
+            if (!isLetter(text.get(pos))) throw error("instruction or label expected");
+            int end = word();
+            int opcode = mnemonic(start, end);
+            if (opcode < 0) { // label definition
+                int id = label(start, end);
+                if (!skipBlanks() || text.get(pos) != ':') throw error("':' expected after label");
+                pos++;
+                definitions[id] = size;
+                continue;
+            }
+            code[size++] = opcode;
+            if (!Instruction.hasOperand(opcode)) continue;
+            if (!skipBlanks()) throw error("operand expected");
+            boolean labelOperand = opcode != SVMParser.NEW && opcode != SVMParser.LOADLOCAL && opcode != SVMParser.CALLMETHOD;
+            boolean intOperand = opcode == SVMParser.PUSH || !labelOperand;
+            byte b = text.get(pos);
+            if (labelOperand && isLetter(b)) {
+                start = pos;
+                end = word();
+                if (mnemonic(start, end) >= 0) throw error("label expected");
+                int id = label(start, end);
+                code[size] = uses[id];
+                uses[id] = size++;
+            } else if (intOperand && (isDigit(b) || b == '-')) code[size++] = integer();
+            else throw error(labelOperand && !intOperand ? "label expected" : "integer expected");
+        }
+        for (int id = 0; id < labels; id++)
+            for (int use = uses[id]; use >= 0; ) {
+                if (definitions[id] < 0) {
+                    byte[] name = new byte[nameLengths[id]];
+                    text.get(nameStarts[id], name);
+                    throw new IOException("Undefined label "+new String(name));
+                }
+                int previous = code[use];
+                code[use] = definitions[id];
+                use = previous;
+            }
+        return code;
+    }
+
+    // skips whitespace and comments, returns false at the end of the text
+    private boolean skipBlanks() throws IOException {
+        while (pos < limit) {
+            byte b = text.get(pos);
+            if (b == '\n') line++;
+            if (b == ' ' || b == '\t' || b == '\n' || b == '\r') pos++;
+            else if (b == '/' && pos+1 < limit && text.get(pos+1) == '*') {
+                int commentLine = line;
+                pos += 2;
+                while (pos+1 < limit && !(text.get(pos) == '*' && text.get(pos+1) == '/')) {
+                    if (text.get(pos) == '\n') line++;
+                    pos++;
+                }
+                if (pos+1 >= limit) throw new IOException("Unterminated comment at line "+commentLine);
+                pos += 2;
+            } else return true;
+        }
+        return false;
+    }
+
+    // end of the word (letters and digits) starting at pos, moving pos there
+    private int word() {
+        while (pos < limit && (isLetter(text.get(pos)) || isDigit(text.get(pos)))) pos++;
+        return pos;
+    }
+
+    // INTEGER : '0' | ('-')?(('1'..'9')('0'..'9')*)
+    private int integer() throws IOException {
+        boolean negative = text.get(pos) == '-';
+        if (negative) pos++;
+        if (pos >= limit || !isDigit(text.get(pos)) || (text.get(pos) == '0' && negative))
+            throw error("integer expected");
+        if (text.get(pos) == '0') {
+            pos++;
+            return 0;
+        }
+        long value = 0;
+        while (pos < limit && isDigit(text.get(pos))) {
+            value = value*10 + (text.get(pos++) - '0');
+            if (value > (long) Integer.MAX_VALUE + 1) throw error("integer out of range");
+        }
+        if (!negative && value > Integer.MAX_VALUE) throw error("integer out of range");
+        return (int) (negative ? -value : value);
+    }
+
+    // opcode of the mnemonic text[start,end), -1 if it is not a mnemonic
+    private int mnemonic(int start, int end) {
+        if (end-start > 7) return -1;
+        long key = 0;
+        for (int i = start; i < end; i++) key = key << 8 | text.get(i);
+        int i = Arrays.binarySearch(MNEMONICS, key);
+        return i >= 0 ? OPCODES[i] : -1;
+    }
+
+    // mnemonics are at most 7 bytes, so that the opcode fits in the lowest byte when sorting
+    private static long pack(byte[] bytes, int start, int end) {
+        if (end-start > 7) throw new IllegalStateException("Mnemonic too long");
+        long key = 0;
+        for (int i = start; i < end; i++) key = key << 8 | bytes[i];
+        return key;
+    }
+
+    // id of the label text[start,end), interned if new
+    private int label(int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) hash = 31*hash + text.get(i);
+        int mask = table.length-1;
+        for (int slot = mix(hash) & mask; ; slot = (slot+1) & mask) {
+            int id = table[slot]-1;
+            if (id < 0) break;
+            if (sameName(id, start, end)) return id;
+        }
+        if (labels == nameStarts.length) {
+            int capacity = 2*labels;
+            nameStarts = Arrays.copyOf(nameStarts, capacity);
+            nameLengths = Arrays.copyOf(nameLengths, capacity);
+            definitions = Arrays.copyOf(definitions, capacity);
+            uses = Arrays.copyOf(uses, capacity);
+        }
+        int id = labels++;
+        nameStarts[id] = start;
+        nameLengths[id] = end-start;
+        definitions[id] = -1;
+        uses[id] = -1;
+        if (2*labels > table.length) rehash();
+        else insert(id, hash);
+        return id;
+    }
+
+    private boolean sameName(int id, int start, int end) {
+        if (nameLengths[id] != end-start) return false;
+        for (int i = 0; i < end-start; i++)
+            if (text.get(nameStarts[id]+i) != text.get(start+i)) return false;
+        return true;
+    }
+
+    private void insert(int id, int hash) {
+        int mask = table.length-1;
+        int slot = mix(hash) & mask;
+        while (table[slot] != 0) slot = (slot+1) & mask;
+        table[slot] = id+1;
+    }
+
+    private void rehash() {
+        table = new int[2*table.length];
+        for (int id = 0; id < labels; id++) {
+            int hash = 0;
+            for (int i = 0; i < nameLengths[id]; i++) hash = 31*hash + text.get(nameStarts[id]+i);
+            insert(id, hash);
+        }
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    private static boolean isLetter(byte b) {
+        return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    private IOException error(String message) {
+        return new IOException("SVM assembly error at line "+line+": "+message);
+    }
+}
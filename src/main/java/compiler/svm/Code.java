@@ -0,0 +1,80 @@
+package compiler.svm;
+
+/**
+ * A sequence of SVM instructions, built by the code generator (see {@link InstructionList}).
+ */
+public class Code extends InstructionList<Instruction, Code> {
+
+    public Code() {}
+
+    private Code(Instruction i) {
+        super(i);
+    }
+
+    // single instruction fragments
+
+    public static Code op(int opcode) {
+        if (Instruction.hasOperand(opcode))
+            throw new IllegalArgumentException("Missing operand for "+Instruction.mnemonic(opcode));
+        return new Code(new Instruction(opcode, 0, null));
+    }
+
+    public static Code op(int opcode, int arg) {
+        if (!Instruction.hasOperand(opcode))
+            throw new IllegalArgumentException(Instruction.mnemonic(opcode)+" takes no operand");
+        return new Code(new Instruction(opcode, arg, null));
+    }
+
+    public static Code push(int value) {
+        return new Code(new Instruction(SVMParser.PUSH, value, null));
+    }
+
+    public static Code push(String label) {
+        return new Code(new Instruction(SVMParser.PUSH, 0, label));
+    }
+
+    public static Code jump(int opcode, String label) {
+        if (!Instruction.hasOperand(opcode) || opcode == SVMParser.PUSH)
+            throw new IllegalArgumentException(Instruction.mnemonic(opcode)+" is not a branch");
+        return new Code(new Instruction(opcode, 0, label));
+    }
+
+    public static Code label(String label) {
+        return new Code(new Instruction(Instruction.LABEL_DEF, 0, label));
+    }
+
+    /*
+     * Replaces the n instructions following prev (the first n if prev is null) with
+     * the instructions of c, leaving c empty. Returns the instruction now following prev.
+     */
+    Instruction replace(Instruction prev, int n, Code c) {
+        Instruction after = prev == null ? first : prev.next;
+        for (int j = 0; j < n; j++) after = after.next;
+        Instruction start = c.first != null ? c.first : after;
+        if (c.first != null) c.last.next = after;
+        if (prev == null) first = start;
+        else prev.next = start;
+        if (after == null) last = c.last != null ? c.last : prev;
+        size += c.size - n;
+        c.first = c.last = null;
+        c.size = 0;
+        return start;
+    }
+
+    // a copy of a single instruction
+    static Code copy(Instruction i) {
+        Instruction copy = new Instruction(i.opcode, i.arg, i.label);
+        copy.separated = i.separated;
+        return new Code(copy);
+    }
+
+    /**
+     * Returns a copy of this code, made of new instructions: the copy can be appended
+     * (or optimized) while this code is kept unchanged.
+     */
+    public Code copy() {
+        Code c = new Code();
+        for (Instruction i = first; i != null; i = i.next) c.append(copy(i));
+        return c;
+    }
+}
@@ -1,32 +1,189 @@
 package compiler.svm;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
 public class ExecuteVM {
     
-    public static final int CODESIZE = 10000;
-    public static final int MEMSIZE = 10000;
+    public static final int CODESIZE = 10000;       // initial capacity of code arrays
+    public static final int MEMSIZE = 10000;        // default memory size
+    public static final int MAX_MEMSIZE = 1 << 30;  // largest memory size (keeps fp+offset from overflowing)
+
+    private static final int INITIAL_REGION = 1024; // initial heap/stack size of growable memory
+    private static final int CACHE_WAYS = 4;        // dispatch pointers cached per method call site
     
-    private int[] code;
-    private int[] memory = new int[MEMSIZE];
+    private final long[] program; // pre-decoded code, see decode()
+
+    /*
+     * Memory cells 0..memSize-1: the heap grows upwards from 0, the stack downwards from memSize.
+     * Cells [0,heap.length) are kept in heap[] and cells [stackBase,memSize) in stack[].
+     * Fixed memory is a single array (heap == stack, stackBase == 0) allocated upfront;
+     * growable memory starts with two small arrays, doubled on demand until they meet.
+     * Registers and the stack are package-private, as code compiled by JitCompiler runs on them.
+     */
+    final int memSize;
+    private final boolean growable;
+    private int[] heap;
+    int[] stack;
+    int stackBase;
+    int stackLimit;   // max(stackBase, hp): lowest sp that needs no check
     
-    private int ip = 0;
-    private int sp = MEMSIZE;
+    int ip = 0;
+    int sp;
     
-    private int hp = 0;       
-    private int fp = MEMSIZE; 
-    private int ra;           
-    private int tm;
+    int hp = 0;       
+    int fp; 
+    int ra;           
+    int tm;
+
+    private final GarbageCollector gc = new GarbageCollector(this);
+    private long executed = 0;
+    private boolean counting = false; // whether cpu() counts the executed instructions
+
+    /*
+     * Inline caches of the method call sites (jsm instructions), by code address, allocated at the
+     * first call: up to CACHE_WAYS dispatch pointers met at the site, each followed by the address
+     * of the called method, as {used, dp1, method1, dp2, method2, ...}. The first entry makes
+     * monomorphic sites hit at the first compare; once all are used, other classes are looked up.
+     * Dispatch tables are never written after being built, nor moved, so entries stay valid.
+     */
+    private final int[][] inlineCaches;
+    private long cacheHits = 0;
+    private long cacheMisses = 0;
     
     public ExecuteVM(int[] code) {
-      this.code = code;
+      this(code, MEMSIZE, false);
+    }
+
+    /**
+     * Creates a VM with the given memory size.
+     *
+     * @param code     the code to run
+     * @param memSize  the number of memory cells (initial value of sp and fp)
+     * @param growable whether memory is allocated on demand, as the heap and the stack grow,
+     *                 rather than upfront
+     */
+    public ExecuteVM(int[] code, int memSize, boolean growable) {
+      this(decode(code), memSize, growable);
+    }
+
+    /*
+     * Creates a VM with no code, used as memory (heap, stack and garbage collector)
+     * by the RegisterVM.
+     */
+    ExecuteVM(int memSize, boolean growable) {
+      this(new long[0], memSize, growable);
+    }
+
+    private ExecuteVM(long[] program, int memSize, boolean growable) {
+      if (memSize <= 0 || memSize > MAX_MEMSIZE)
+        throw new IllegalArgumentException("Invalid memory size "+memSize);
+      this.program = program;
+      this.inlineCaches = new int[program.length][];
+      this.memSize = memSize;
+      this.growable = growable;
+      if (growable) {
+        int region = Math.min(INITIAL_REGION, memSize/2);
+        heap = new int[region];
+        stack = new int[region];
+        stackBase = memSize - region;
+      } else {
+        heap = stack = new int[memSize];
+        stackBase = 0;
+      }
+      sp = fp = memSize;
+      stackLimit = stackBase;
+    }
+
+    /**
+     * Creates a VM running the code of an object file (see {@link ObjectFile}),
+     * loaded by memory-mapping it.
+     */
+    public static ExecuteVM load(Path objectFile) throws IOException {
+      return new ExecuteVM(ObjectFile.read(objectFile).code);
+    }
+
+    public static ExecuteVM load(Path objectFile, int memSize, boolean growable) throws IOException {
+      return new ExecuteVM(ObjectFile.read(objectFile).code, memSize, growable);
+    }
+    
+    /**
+     * Returns the garbage collector of the VM heap.
+     */
+    public GarbageCollector gc() {
+      return gc;
+    }
+    
+    /**
+     * Makes {@link #cpu()} count the executed instructions (see {@link #executedInstructions()}).
+     * Counting is off by default, so that the interpreter loop does not pay for it.
+     */
+    public void countInstructions(boolean counting) {
+      this.counting = counting;
+    }
+
+    /**
+     * Returns the number of instructions executed so far while counting them.
+     */
+    public long executedInstructions() {
+      return executed;
+    }
+    
+    /**
+     * Returns the number of method calls whose method was found in the inline cache of the call site.
+     */
+    public long inlineCacheHits() {
+      return cacheHits;
+    }
+
+    /**
+     * Returns the number of method calls whose method was looked up in the dispatch table.
+     */
+    public long inlineCacheMisses() {
+      return cacheMisses;
+    }
+    
+    /**
+     * Runs the program through its translation to JVM bytecode, falling back to the interpreter
+     * for the code that was not compiled, until it reaches the start of a compiled block again.
+     * Executed instructions are counted (see {@link #countInstructions}) only while interpreting.
+     *
+     * @param compiled the program code compiled by {@link JitCompiler}
+     */
+    public void run(JitCode compiled) {
+      while (true) {
+        int pc = compiled.run(this, ip);
+        if (pc < 0) return; // halted
+        ip = pc;
+        if (interpret(compiled)) return;
+      }
     }
     
     public void cpu() {
+      interpret(null);
+    }
+
+    /*
+     * Interprets the code from ip until it halts (returning true) or, if compiled is not null,
+     * until it reaches the start of a compiled block (returning false).
+     */
+    private boolean interpret(JitCode compiled) {
+      final boolean counting = this.counting;
+      final boolean checked = counting || compiled != null; // read once, outside the loop
       while ( true ) {
-        int bytecode = code[ip++]; // fetch
+        if (checked) {
+          if (compiled != null && compiled.compiles(ip)) return false;
+          if (counting) executed++;
+        }
+        long instruction = program[ip++]; // fetch (opcode and operand)
+        int bytecode = (int) instruction;
         int v1,v2;
         int address;
         switch ( bytecode ) {
           case SVMParser.PUSH:
-            push( code[ip++] );
+            push( operand(instruction) );
+            ip++;
             break;
           case SVMParser.POP:
             pop();
@@ -53,23 +210,24 @@ public class ExecuteVM {
             break;
           case SVMParser.STOREW : //
             address = pop();
-            memory[address] = pop();    
+            store(address, pop());
             break;
           case SVMParser.LOADW : //
-            push(memory[pop()]);
+            push(load(pop()));
             break;
           case SVMParser.BRANCH : 
-            address = code[ip];
-            ip = address;
+            ip = operand(instruction);
             break;
           case SVMParser.BRANCHEQ :
-            address = code[ip++];
+            address = operand(instruction);
+            ip++;
             v1=pop();
             v2=pop();
             if (v2 == v1) ip = address;
             break;
           case SVMParser.BRANCHLESSEQ :
-            address = code[ip++];
+            address = operand(instruction);
+            ip++;
             v1=pop();
             v2=pop();
             if (v2 <= v1) ip = address;
@@ -101,26 +259,167 @@ public class ExecuteVM {
             fp=sp;
             break;
          case SVMParser.STOREHP : //
-            hp=pop();
+            setHp(pop());
             break;
          case SVMParser.LOADHP : //
             push(hp);
             break;
          case SVMParser.PRINT :
-            System.out.println((sp<MEMSIZE)?memory[sp]:"Empty stack!");
+            print();
             break;
          case SVMParser.HALT :
-            return;
+            return true;
+         case SVMParser.LOADLOCAL : // lfp; push k; add; lw
+            address = fp + operand(instruction);
+            ip++;
+            push(load(address));
+            break;
+         case SVMParser.HPINC : // lhp; push 1; add; shp
+            setHp(hp+1);
+            break;
+         case SVMParser.BRZERO : // push 0; beq
+            address = operand(instruction);
+            ip++;
+            if (pop() == 0) ip = address;
+            break;
+         case SVMParser.BRONE : // push 1; beq
+            address = operand(instruction);
+            ip++;
+            if (pop() == 1) ip = address;
+            break;
+         case SVMParser.CALLMETHOD : // lw; push k; add; lw; js
+            address = dispatch(ip-1, pop(), operand(instruction));
+            ip++;
+            ra = ip;
+            ip = address;
+            break;
+         case SVMParser.NEW : // allocate an object with n fields, below its dispatch pointer
+            newObject(operand(instruction));
+            ip++;
+            break;
+         default :
+            throw new IllegalStateException("Invalid opcode "+bytecode+" at address "+(ip-1));
         }
       }
     } 
     
+    /*
+     * Pre-decodes the code: each address gets a record with its word as opcode (low int) and
+     * the following word as operand (high int), so that an instruction is fetched at once.
+     * Every address is decoded, operand words included, as code addresses are computed
+     * at run time (return addresses, method addresses): the code word indexing is kept.
+     */
+    private static long[] decode(int[] code) {
+      long[] program = new long[code.length];
+      for (int i = 0; i < code.length; i++)
+        program[i] = (i+1 < code.length ? (long) code[i+1] << 32 : 0) | (code[i] & 0xFFFFFFFFL);
+      return program;
+    }
+
+    private static int operand(long instruction) {
+      return (int) (instruction >>> 32);
+    }
+
+    void setHp(int value) {
+      hp = value;
+      if (hp > sp) outOfMemory(); // heap ran into the stack
+      stackLimit = Math.max(stackBase, hp);
+    }
+
+    void print() {
+      System.out.println((sp<memSize)?stack[sp-stackBase]:"Empty stack!");
+    }
+
+    // pop the dispatch pointer and the field values, push the new object pointer
+    void newObject(int fields) {
+      int address = allocate(fields+1);
+      store(address+fields, pop()); // dispatch pointer
+      for (int f = 0; f < fields; f++) store(address+f, pop()); // fields, last one first
+      push(address+fields);
+    }
+
+    // address of the method at offset k in the dispatch table of the object, for the call site at address site
+    int dispatch(int site, int object, int offset) {
+      int dp = load(object);
+      int[] cache = inlineCaches[site];
+      if (cache == null) {
+        cache = inlineCaches[site] = new int[1 + 2*CACHE_WAYS];
+        cache[0] = 1;
+      }
+      for (int c = 1; c < cache[0]; c += 2)
+        if (cache[c] == dp) {
+          cacheHits++;
+          return cache[c+1];
+        }
+      cacheMisses++;
+      int method = load(dp + offset);
+      if (cache[0] < cache.length) {
+        cache[cache[0]] = dp;
+        cache[cache[0]+1] = method;
+        cache[0] += 2;
+      }
+      return method;
+    }
+
+    // allocate a block of heap cells, returning the address of the first one
+    int allocate(int size) {
+      int address = gc.allocate(size);
+      stackLimit = Math.max(stackBase, hp);
+      return address;
+    }
+
     private int pop() {
-      return memory[sp++];
+      return stack[sp++ - stackBase];
     }
     
     private void push(int v) {
-      memory[--sp] = v;
+      if (--sp < stackLimit) growStack(sp);
+      stack[sp - stackBase] = v;
+    }
+
+    int load(int address) {
+      if (address >= stackBase) return stack[address - stackBase];
+      if (address >= heap.length) return 0; // never written, hence still zero 
+      return heap[address];
+    }
+
+    void store(int address, int v) {
+      if (address >= stackBase) {
+        stack[address - stackBase] = v;
+        return;
+      }
+      if (address >= heap.length) growHeap(address);
+      heap[address] = v;
+    }
+
+    // make room in the heap array for address (between heap.length and stackBase)
+    private void growHeap(int address) {
+      int length = Math.min(Math.max(2*heap.length, address+1), stackBase);
+      heap = Arrays.copyOf(heap, length);
+    }
+
+    // check that the stack can grow down to address top without running into the heap and make
+    // room in the stack array for it (below stackBase), taking back heap cells above hp if needed
+    void growStack(int top) {
+      if (top < hp) {
+        gc.collect(); // may give back free cells on top of the heap
+        if (top < hp) outOfMemory();
+      }
+      if (top < stackBase) {
+        if (!growable) outOfMemory();
+        int heapTop = Math.max(0, Math.min(hp, heap.length));
+        int length = Math.min(Math.max(2*stack.length, memSize-top), memSize-heapTop);
+        int[] newStack = new int[length];
+        System.arraycopy(stack, 0, newStack, length-stack.length, stack.length);
+        stack = newStack;
+        stackBase = memSize - length;
+        if (heap.length > stackBase) heap = Arrays.copyOf(heap, stackBase);
+      }
+      stackLimit = Math.max(stackBase, hp);
+    }
+
+    void outOfMemory() {
+      throw new IllegalStateException("SVM out of memory (memory size "+memSize+")");
     }
     
 }
\ No newline at end of file
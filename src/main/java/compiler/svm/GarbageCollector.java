@@ -0,0 +1,166 @@
+package compiler.svm;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Mark-sweep garbage collector for the heap of an {@link ExecuteVM}.
+ * <p>
+ * Objects are allocated by the {@code new} instruction as blocks of memory cells:
+ * the object pointer is the last cell of its block (the dispatch pointer), fields are below it.
+ * The heap area below the first object (the dispatch tables, allocated with {@code lhp}/{@code shp})
+ * is permanent and holds no object pointers.
+ * <p>
+ * SVM memory cells are untyped, so roots are found conservatively: every stack cell
+ * (all frames, access links and temporaries included) and the {@code tm}/{@code ra} registers
+ * are treated as a pointer if they hold the address of an allocated object; object fields are
+ * traced the same way. Since a root could actually be an integer, objects are never moved:
+ * freed blocks are recycled through free lists segregated by block size, and free blocks on top
+ * of the heap are given back by lowering {@code hp}.
+ */
+public class GarbageCollector {
+
+    private static final int MIN_THRESHOLD = 1 << 16; // cells allocated before the first collection
+    private static final int MIN_ALLOWANCE = 1 << 10;  // least heap growth between collections
+
+    private final ExecuteVM vm;
+
+    private int start = -1;                     // first object cell (end of the dispatch tables)
+    private int[] blockSize = new int[1024];    // block size, at the object pointer of each block (relative to start)
+    private final BitSet free = new BitSet();   // free blocks (by object pointer, relative to start)
+    private final BitSet marked = new BitSet();
+    private int[][] freeLists = new int[0][];   // free blocks (object pointers) by block size
+    private int[] freeCount = new int[0];
+    private int[] worklist = new int[64];
+    private int threshold;                      // collect when the heap grows beyond this many cells
+
+    private int collections = 0;
+    private int liveCells = 0;
+
+    GarbageCollector(ExecuteVM vm) {
+        this.vm = vm;
+    }
+
+    /**
+     * Allocates a block of memory cells, collecting garbage if needed.
+     *
+     * @return the address of the first cell of the block
+     */
+    int allocate(int size) {
+        if (start < 0) {
+            start = vm.hp;
+            threshold = allowance(MIN_THRESHOLD);
+        }
+        int pointer = reuse(size);
+        if (pointer < 0) {
+            if (vm.hp - start + size > threshold || vm.hp + size > vm.sp) {
+                collect();
+                pointer = reuse(size);
+            }
+            if (pointer < 0) {
+                if (vm.hp + size > vm.sp) vm.outOfMemory();
+                vm.hp += size;
+                pointer = vm.hp - 1;
+                if (pointer - start >= blockSize.length)
+                    blockSize = Arrays.copyOf(blockSize, Math.max(2*blockSize.length, pointer - start + 1));
+                blockSize[pointer - start] = size;
+            }
+        }
+        return pointer - size + 1;
+    }
+
+    /**
+     * Returns the number of collections performed so far.
+     */
+    public int collections() {
+        return collections;
+    }
+
+    /**
+     * Returns the number of heap cells found live by the last collection.
+     */
+    public int liveCells() {
+        return liveCells;
+    }
+
+    // take a free block of the given size, if any
+    private int reuse(int size) {
+        if (size >= freeCount.length || freeCount[size] == 0) return -1;
+        int pointer = freeLists[size][--freeCount[size]];
+        free.clear(pointer - start);
+        return pointer;
+    }
+
+    /**
+     * Collects garbage, freeing the objects unreachable from the stack.
+     */
+    void collect() {
+        if (start < 0) return; // no object allocated yet
+        collections++;
+        // mark
+        int top = 0;
+        for (int address = vm.sp; address < vm.memSize; address++)
+            top = mark(vm.load(address), top);
+        top = mark(vm.tm, top);
+        top = mark(vm.ra, top);
+        while (top > 0) {
+            int pointer = worklist[--top];
+            for (int field = pointer - blockSize[pointer - start] + 1; field < pointer; field++)
+                top = mark(vm.load(field), top);
+        }
+        // sweep, from the top of the heap
+        Arrays.fill(freeCount, 0);
+        boolean onTop = true;
+        liveCells = 0;
+        int freeCells = 0;
+        for (int pointer = vm.hp - 1; pointer >= start; ) {
+            int size = blockSize[pointer - start];
+            if (marked.get(pointer - start)) {
+                onTop = false;
+                liveCells += size;
+            } else if (onTop) {
+                blockSize[pointer - start] = 0;
+                free.clear(pointer - start);
+                vm.hp = pointer - size + 1;
+            } else {
+                free.set(pointer - start);
+                addFree(size, pointer);
+                freeCells += size;
+            }
+            pointer -= size;
+        }
+        marked.clear();
+        // the heap may grow by the allowance, unless the free blocks already fill it
+        int allowance = allowance(Math.max(MIN_THRESHOLD, liveCells));
+        if (freeCells >= allowance/2) threshold = Math.max(liveCells + allowance, vm.hp - start);
+        else threshold = vm.hp - start + allowance;
+    }
+
+    // cells to allocate before the next collection: in small memories at most an eighth
+    // of the memory, so as to leave room to the stack
+    private int allowance(int cells) {
+        return Math.min(cells, Math.max(MIN_ALLOWANCE, (vm.memSize - start) / 8));
+    }
+
+    // mark the object pointed by value (if any) and push it on the worklist
+    private int mark(int value, int top) {
+        if (value < start || value >= vm.hp) return top;
+        int i = value - start;
+        if (blockSize[i] == 0 || free.get(i) || marked.get(i)) return top;
+        marked.set(i);
+        if (top == worklist.length) worklist = Arrays.copyOf(worklist, 2*top);
+        worklist[top++] = value;
+        return top;
+    }
+
+    private void addFree(int size, int pointer) {
+        if (size >= freeCount.length) {
+            freeLists = Arrays.copyOf(freeLists, size + 1);
+            freeCount = Arrays.copyOf(freeCount, size + 1);
+        }
+        int[] list = freeLists[size];
+        if (list == null) list = freeLists[size] = new int[16];
+        else if (freeCount[size] == list.length) list = freeLists[size] = Arrays.copyOf(list, 2*list.length);
+        list[freeCount[size]++] = pointer;
+    }
+}
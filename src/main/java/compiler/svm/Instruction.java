@@ -0,0 +1,67 @@
+package compiler.svm;
+
+/**
+ * A single SVM instruction (or label definition) of the intermediate representation
+ * produced by the code generator.
+ * <p>
+ * Opcodes are the SVM grammar token types (e.g. {@link SVMParser#PUSH}), the same values
+ * stored in the code array run by {@link ExecuteVM}. An operand is either an integer
+ * or a reference to a label, resolved by the {@link Assembler}.
+ */
+public class Instruction extends InstructionList.Item<Instruction> {
+
+    public static final int LABEL_DEF = 0; // pseudo-opcode of a label definition "label:"
+
+    public final int opcode;
+    public final int arg;       // integer operand
+    public final String label;  // label operand, or label defined by LABEL_DEF
+
+    Instruction(int opcode, int arg, String label) {
+        this.opcode = opcode;
+        this.arg = arg;
+        this.label = label;
+    }
+
+    public boolean isLabelDef() {
+        return opcode == LABEL_DEF;
+    }
+
+    /**
+     * Checks whether the instruction takes an operand (stored in the code word that follows the opcode).
+     */
+    public boolean hasOperand() {
+        return hasOperand(opcode);
+    }
+
+    public static boolean hasOperand(int opcode) {
+        switch (opcode) {
+            case SVMParser.PUSH:
+            case SVMParser.BRANCH:
+            case SVMParser.BRANCHEQ:
+            case SVMParser.BRANCHLESSEQ:
+            case SVMParser.NEW:
+            case SVMParser.LOADLOCAL:
+            case SVMParser.BRZERO:
+            case SVMParser.BRONE:
+            case SVMParser.CALLMETHOD:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Returns the assembly mnemonic of an opcode, as defined in the SVM grammar.
+     */
+    public static String mnemonic(int opcode) {
+        String literal = SVMLexer.VOCABULARY.getLiteralName(opcode); // in the form 'push'
+        return literal.substring(1, literal.length()-1);
+    }
+
+    @Override
+    public String toString() {
+        if (isLabelDef()) return label+":";
+        if (!hasOperand()) return mnemonic(opcode);
+        return mnemonic(opcode)+" "+(label != null ? label : Integer.toString(arg));
+    }
+}
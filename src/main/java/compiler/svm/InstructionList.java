@@ -0,0 +1,144 @@
+package compiler.svm;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A sequence of instructions built by a code generator: {@link Code} for the stack machine,
+ * {@link RegisterCode} for the register machine.
+ * <p>
+ * Instructions are kept in a linked chain, so that appending a whole fragment
+ * takes constant time: generating code for a program is linear in its size.
+ * Appending moves the instructions, leaving the appended fragment empty, hence
+ * each fragment ends up in exactly one place of the generated program.
+ *
+ * @param <I> the instructions
+ * @param <C> the sequences of instructions I (the subclass itself)
+ */
+public abstract class InstructionList<I extends InstructionList.Item<I>, C extends InstructionList<I,C>> implements Iterable<I> {
+
+    /**
+     * An instruction (or label definition) of an InstructionList.
+     */
+    public abstract static class Item<I extends Item<I>> {
+
+        I next;             // next instruction in the enclosing list
+        boolean separated;  // printed after a blank line, as the first of a fragment (see separate)
+
+        /**
+         * Returns the next instruction in the enclosing list, null if this is the last one.
+         */
+        public I next() {
+            return next;
+        }
+    }
+
+    I first;
+    I last;
+    int size;
+
+    InstructionList() {}
+
+    InstructionList(I i) {
+        first = last = i;
+        size = 1;
+    }
+
+    @SuppressWarnings("unchecked")
+    private C self() {
+        return (C) this;
+    }
+
+    /**
+     * Moves all the instructions of c at the end of this code (in constant time).
+     * Fragment c is left empty; null is ignored.
+     *
+     * @return this code
+     */
+    public C append(C c) {
+        if (c == null || c.first == null) return self();
+        if (first == null) first = c.first;
+        else last.next = c.first;
+        last = c.last;
+        size += c.size;
+        c.first = c.last = null;
+        c.size = 0;
+        return self();
+    }
+
+    /**
+     * Moves the instructions of the given fragments, in order, at the end of this code;
+     * null fragments are ignored.
+     *
+     * @return this code
+     */
+    @SafeVarargs
+    public final C append(C... fragments) {
+        for (C c : fragments) append(c);
+        return self();
+    }
+
+    /**
+     * Marks this code as a separate fragment (e.g. the code of a function), printed after a blank line.
+     *
+     * @return this code
+     */
+    public C separate() {
+        if (first != null) first.separated = true;
+        return self();
+    }
+
+    I first() {
+        return first;
+    }
+
+    /**
+     * Returns the number of instructions, label definitions included.
+     */
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Iterator<I> iterator() {
+        return new Iterator<I>() {
+            private I current = first;
+
+            @Override
+            public boolean hasNext() {
+                return current != null;
+            }
+
+            @Override
+            public I next() {
+                if (current == null) throw new NoSuchElementException();
+                I i = current;
+                current = current.next;
+                return i;
+            }
+        };
+    }
+
+    /**
+     * Writes the code as assembly text, one instruction or label definition per line
+     * (with a blank line before each separate fragment), a line at a time (the whole text
+     * is never built in memory).
+     */
+    public void print(Appendable out) throws IOException {
+        for (I i = first; i != null; i = i.next) {
+            if (i != first) out.append(i.separated ? "\n\n" : "\n");
+            out.append(i.toString());
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        try {
+            print(sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // never thrown by StringBuilder
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,51 @@
+package compiler.svm;
+
+/**
+ * SVM code translated to JVM bytecode by {@link JitCompiler}, run by {@link ExecuteVM#run(JitCode)}.
+ * <p>
+ * Compiled basic blocks are grouped into segments (generated classes). A segment runs its
+ * blocks one after the other, until the next block to run is in another segment or was not compiled.
+ */
+public class JitCode {
+
+    // a generated class running the blocks it contains, starting with the one at address pc;
+    // returns the address of the first block it does not contain, -1 on halt
+    interface Segment {
+        int run(ExecuteVM vm, int pc);
+    }
+
+    private final Segment[] segments;
+    private final int[] segmentOf;  // segment of the block starting at each code address, -1 if none
+    private final int blocks;
+
+    JitCode(Segment[] segments, int[] segmentOf, int blocks) {
+        this.segments = segments;
+        this.segmentOf = segmentOf;
+        this.blocks = blocks;
+    }
+
+    /**
+     * Returns the number of compiled basic blocks.
+     */
+    public int compiledBlocks() {
+        return blocks;
+    }
+
+    // whether a compiled block starts at address pc
+    boolean compiles(int pc) {
+        return pc < segmentOf.length && segmentOf[pc] >= 0;
+    }
+
+    /**
+     * Runs compiled code from address pc, as long as it reaches compiled blocks.
+     *
+     * @return -1 if the program halted, otherwise the address of the first instruction not compiled
+     */
+    int run(ExecuteVM vm, int pc) {
+        while (pc >= 0) {
+            if (pc >= segmentOf.length || segmentOf[pc] < 0) return pc;
+            pc = segments[segmentOf[pc]].run(vm, pc);
+        }
+        return pc;
+    }
+}
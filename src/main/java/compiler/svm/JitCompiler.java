@@ -0,0 +1,577 @@
+package compiler.svm;
+
+import java.lang.invoke.MethodHandles;
+import java.util.*;
+
+import org.objectweb.asm.*;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Just-in-time compiler translating SVM code into JVM bytecode, so that HotSpot can optimize it.
+ * <p>
+ * The code is split into basic blocks, starting at the entry points (addresses that are jumped to
+ * at run time, e.g. labels), at branch targets and after branches, calls and heap pointer updates.
+ * Each block becomes a static method running on the registers and memory of an {@link ExecuteVM},
+ * with the same semantics as the interpreter, and returning the address of the next block to run:
+ * jumps (including calls and returns through {@code ra}, with {@code js}) go through a switch
+ * over block addresses. Blocks are grouped into segments, each a generated hidden class,
+ * so that the generated methods stay small enough to be optimized.
+ * <p>
+ * Blocks containing instructions the translator cannot handle are not compiled:
+ * execution falls back to the interpreter when reaching them, and goes back to compiled code
+ * at the start of the next compiled block it reaches.
+ */
+public class JitCompiler {
+
+    private static final int MAX_BLOCK = 256;       // instructions per basic block
+    private static final int SEGMENT_BLOCKS = 256;  // basic blocks per generated class
+
+    private static final String VM = Type.getInternalName(ExecuteVM.class);
+    private static final String VM_DESC = Type.getDescriptor(ExecuteVM.class);
+    private static final String BLOCK_DESC = "(" + VM_DESC + ")I";
+
+    // locals of block methods
+    private static final int L_VM = 0, L_STACK = 1, L_BASE = 2, L_SP = 3, L_V1 = 4, L_ADDRESS = 5;
+
+    private final int[] code;
+    private final int length;
+
+    private JitCompiler(int[] code) {
+        this.code = code;
+        this.length = code.length;
+    }
+
+    /**
+     * Compiles code whose entry points are unknown (e.g. an object file without debug section):
+     * the operands of push instructions that are instruction addresses are taken as entry points.
+     */
+    public static JitCode compile(int[] code) {
+        Set<Integer> entryPoints = new HashSet<>();
+        for (int i = 0; i < code.length; i += width(code[i]))
+            if (code[i] == SVMParser.PUSH && i+1 < code.length) entryPoints.add(code[i+1]);
+        return compile(code, entryPoints);
+    }
+
+    /**
+     * Compiles code.
+     *
+     * @param code        the code array
+     * @param entryPoints the addresses that can be jumped to at run time (the labels), besides
+     *                    branch targets and return addresses
+     */
+    public static JitCode compile(int[] code, Collection<Integer> entryPoints) {
+        return new JitCompiler(code).compile(entryPoints);
+    }
+
+    private static int width(int opcode) {
+        return Instruction.hasOperand(opcode) ? 2 : 1;
+    }
+
+    private JitCode compile(Collection<Integer> entryPoints) {
+        // find basic blocks
+        boolean[] leader = new boolean[length + 1];
+        leader[0] = true;
+        for (int e : entryPoints) if (e >= 0 && e < length) leader[e] = true;
+        for (int i = 0; i < length; i += width(code[i])) {
+            if (isBranch(code[i]) && i+1 < length && code[i+1] >= 0 && code[i+1] < length) leader[code[i+1]] = true;
+            if (endsBlock(code[i]) || !isSupported(code[i])) leader[Math.min(i + width(code[i]), length)] = true;
+        }
+        List<int[]> blocks = new ArrayList<>(); // {start, end}
+        int start = 0, count = 0;
+        boolean supported = true;
+        for (int i = 0; i < length; i += width(code[i])) {
+            if (i > start && (leader[i] || count == MAX_BLOCK)) {
+                if (supported) blocks.add(new int[] {start, i});
+                start = i;
+                count = 0;
+                supported = true;
+            }
+            supported &= isSupported(code[i]) && i + width(code[i]) <= length;
+            count++;
+        }
+        if (supported && start < length) blocks.add(new int[] {start, length});
+
+        // generate segments
+        int[] segmentOf = new int[length];
+        Arrays.fill(segmentOf, -1);
+        List<JitCode.Segment> segments = new ArrayList<>();
+        int compiled = 0;
+        for (int from = 0; from < blocks.size(); from += SEGMENT_BLOCKS) {
+            List<int[]> segmentBlocks = blocks.subList(from, Math.min(from + SEGMENT_BLOCKS, blocks.size()));
+            JitCode.Segment segment = segment(segments.size(), segmentBlocks);
+            if (segment == null) continue; // not compiled: left to the interpreter
+            for (int[] block : segmentBlocks) segmentOf[block[0]] = segments.size();
+            segments.add(segment);
+            compiled += segmentBlocks.size();
+        }
+        return new JitCode(segments.toArray(new JitCode.Segment[0]), segmentOf, compiled);
+    }
+
+    private static boolean isBranch(int opcode) {
+        switch (opcode) {
+            case SVMParser.BRANCH:
+            case SVMParser.BRANCHEQ:
+            case SVMParser.BRANCHLESSEQ:
+            case SVMParser.BRZERO:
+            case SVMParser.BRONE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    // instructions after which the next block starts: jumps, and heap pointer updates
+    // (which move the limit the stack can grow to, checked at the beginning of blocks)
+    private static boolean endsBlock(int opcode) {
+        switch (opcode) {
+            case SVMParser.JS:
+            case SVMParser.CALLMETHOD:
+            case SVMParser.HALT:
+            case SVMParser.STOREHP:
+            case SVMParser.HPINC:
+            case SVMParser.NEW:
+                return true;
+            default:
+                return isBranch(opcode);
+        }
+    }
+
+    private static boolean isSupported(int opcode) {
+        return opcode >= SVMParser.PUSH && opcode <= SVMParser.HALT
+                || opcode == SVMParser.NEW || opcode == SVMParser.LOADLOCAL || opcode == SVMParser.HPINC
+                || opcode == SVMParser.BRZERO || opcode == SVMParser.BRONE || opcode == SVMParser.CALLMETHOD;
+    }
+
+    // stack cells pushed (positive) or popped (negative) by an instruction, checks done by ExecuteVM aside
+    private static int stackEffect(int opcode) {
+        switch (opcode) {
+            case SVMParser.PUSH:
+            case SVMParser.LOADRA:
+            case SVMParser.LOADTM:
+            case SVMParser.LOADFP:
+            case SVMParser.LOADHP:
+            case SVMParser.LOADLOCAL:
+                return 1;
+            case SVMParser.STOREW:
+            case SVMParser.BRANCHEQ:
+            case SVMParser.BRANCHLESSEQ:
+                return -2;
+            case SVMParser.POP:
+            case SVMParser.ADD:
+            case SVMParser.SUB:
+            case SVMParser.MULT:
+            case SVMParser.DIV:
+            case SVMParser.STORERA:
+            case SVMParser.STORETM:
+            case SVMParser.STOREFP:
+            case SVMParser.STOREHP:
+            case SVMParser.JS:
+            case SVMParser.BRZERO:
+            case SVMParser.BRONE:
+            case SVMParser.CALLMETHOD:
+                return -1;
+            default:
+                return 0;
+        }
+    }
+
+    private JitCode.Segment segment(int index, List<int[]> blocks) {
+        String name = VM.substring(0, VM.lastIndexOf('/') + 1) + "JitSegment" + index;
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(V17, ACC_FINAL | ACC_SUPER, name, null, "java/lang/Object",
+                new String[] {Type.getInternalName(JitCode.Segment.class)});
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        // int run(ExecuteVM vm, int pc): switch over the block addresses
+        mv = cw.visitMethod(ACC_PUBLIC, "run", "(" + VM_DESC + "I)I", null, null);
+        mv.visitCode();
+        Label loop = new Label(), other = new Label();
+        Label[] cases = new Label[blocks.size()];
+        int[] keys = new int[blocks.size()];
+        for (int b = 0; b < blocks.size(); b++) {
+            cases[b] = new Label();
+            keys[b] = blocks.get(b)[0];
+        }
+        mv.visitLabel(loop);
+        mv.visitVarInsn(ILOAD, 2);
+        mv.visitLookupSwitchInsn(other, keys, cases);
+        for (int b = 0; b < blocks.size(); b++) {
+            mv.visitLabel(cases[b]);
+            mv.visitVarInsn(ALOAD, 1);
+            mv.visitMethodInsn(INVOKESTATIC, name, "b" + keys[b], BLOCK_DESC, false);
+            mv.visitVarInsn(ISTORE, 2);
+            mv.visitJumpInsn(GOTO, loop);
+        }
+        mv.visitLabel(other);
+        mv.visitVarInsn(ILOAD, 2);
+        mv.visitInsn(IRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        for (int[] block : blocks) block(cw, block[0], block[1]);
+        cw.visitEnd();
+
+        try {
+            Class<?> segment = MethodHandles.lookup().defineHiddenClass(cw.toByteArray(), true).lookupClass();
+            return (JitCode.Segment) segment.getDeclaredConstructor().newInstance();
+        } catch (RuntimeException | LinkageError | ReflectiveOperationException e) {
+            return null; // e.g. a method too large: run by the interpreter
+        }
+    }
+
+    // static int b<start>(ExecuteVM vm): runs the block, returns the address of the next one (-1 on halt)
+    private void block(ClassWriter cw, int start, int end) {
+        MethodVisitor mv = cw.visitMethod(ACC_PRIVATE | ACC_STATIC, "b" + start, BLOCK_DESC, null, null);
+        BlockWriter w = new BlockWriter(mv);
+        mv.visitCode();
+        w.loadRegisters();
+
+        // make room for the cells the block pushes, as ExecuteVM.push would do
+        int depth = 0, reserve = 0;
+        for (int i = start; i < end; i += width(code[i])) {
+            depth += stackEffect(code[i]);
+            reserve = Math.max(reserve, depth);
+        }
+        if (reserve > 0) {
+            Label room = new Label();
+            mv.visitVarInsn(ILOAD, L_SP);
+            w.constant(reserve);
+            mv.visitInsn(ISUB);
+            w.getField("stackLimit");
+            mv.visitJumpInsn(IF_ICMPGE, room);
+            w.storeSp();
+            mv.visitVarInsn(ALOAD, L_VM);
+            mv.visitVarInsn(ILOAD, L_SP);
+            w.constant(reserve);
+            mv.visitInsn(ISUB);
+            mv.visitMethodInsn(INVOKEVIRTUAL, VM, "growStack", "(I)V", false);
+            w.loadRegisters();
+            mv.visitLabel(room);
+        }
+
+        boolean ended = false;
+        for (int i = start; i < end; i += width(code[i])) {
+            int next = i + width(code[i]);
+            int arg = next > i + 1 ? code[i+1] : 0;
+            ended = w.instruction(code[i], arg, next);
+        }
+        if (!ended) { // fall through to the next block
+            w.storeSp();
+            w.constant(end);
+            mv.visitInsn(IRETURN);
+        }
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+    }
+
+    /*
+     * Writes the bytecode of an SVM instruction. The stack array, stackBase and sp are kept in
+     * local variables, sp is written back before calling ExecuteVM and before leaving the block.
+     */
+    private static class BlockWriter {
+
+        private final MethodVisitor mv;
+
+        BlockWriter(MethodVisitor mv) {
+            this.mv = mv;
+        }
+
+        // returns true if the instruction ends the method
+        boolean instruction(int opcode, int arg, int next) {
+            switch (opcode) {
+                case SVMParser.PUSH:
+                    pushBegin();
+                    constant(arg);
+                    pushEnd();
+                    return false;
+                case SVMParser.POP:
+                    mv.visitIincInsn(L_SP, 1);
+                    return false;
+                case SVMParser.ADD:
+                    arithmetic(IADD);
+                    return false;
+                case SVMParser.SUB:
+                    arithmetic(ISUB);
+                    return false;
+                case SVMParser.MULT:
+                    arithmetic(IMUL);
+                    return false;
+                case SVMParser.DIV:
+                    arithmetic(IDIV);
+                    return false;
+                case SVMParser.STOREW: {
+                    pop();
+                    mv.visitVarInsn(ISTORE, L_ADDRESS);
+                    pop();
+                    mv.visitVarInsn(ISTORE, L_V1);
+                    Label heap = new Label(), done = new Label();
+                    mv.visitVarInsn(ILOAD, L_ADDRESS);
+                    mv.visitVarInsn(ILOAD, L_BASE);
+                    mv.visitJumpInsn(IF_ICMPLT, heap);
+                    mv.visitVarInsn(ALOAD, L_STACK);
+                    mv.visitVarInsn(ILOAD, L_ADDRESS);
+                    mv.visitVarInsn(ILOAD, L_BASE);
+                    mv.visitInsn(ISUB);
+                    mv.visitVarInsn(ILOAD, L_V1);
+                    mv.visitInsn(IASTORE);
+                    mv.visitJumpInsn(GOTO, done);
+                    mv.visitLabel(heap);
+                    mv.visitVarInsn(ALOAD, L_VM);
+                    mv.visitVarInsn(ILOAD, L_ADDRESS);
+                    mv.visitVarInsn(ILOAD, L_V1);
+                    mv.visitMethodInsn(INVOKEVIRTUAL, VM, "store", "(II)V", false);
+                    mv.visitLabel(done);
+                    return false;
+                }
+                case SVMParser.LOADW:
+                    top();
+                    mv.visitInsn(IALOAD);
+                    mv.visitVarInsn(ISTORE, L_ADDRESS);
+                    top();
+                    load();
+                    mv.visitInsn(IASTORE);
+                    return false;
+                case SVMParser.LOADLOCAL:
+                    getField("fp");
+                    constant(arg);
+                    mv.visitInsn(IADD);
+                    mv.visitVarInsn(ISTORE, L_ADDRESS);
+                    pushBegin();
+                    load();
+                    pushEnd();
+                    return false;
+                case SVMParser.BRANCH:
+                    storeSp();
+                    constant(arg);
+                    mv.visitInsn(IRETURN);
+                    return true;
+                case SVMParser.BRANCHEQ:
+                case SVMParser.BRANCHLESSEQ: {
+                    pop();
+                    mv.visitVarInsn(ISTORE, L_V1);
+                    pop();
+                    storeSp();
+                    mv.visitVarInsn(ILOAD, L_V1);
+                    Label taken = new Label();
+                    mv.visitJumpInsn(opcode == SVMParser.BRANCHEQ ? IF_ICMPEQ : IF_ICMPLE, taken);
+                    branchEnd(taken, arg, next);
+                    return true;
+                }
+                case SVMParser.BRZERO:
+                case SVMParser.BRONE: {
+                    pop();
+                    storeSp();
+                    Label taken = new Label();
+                    if (opcode == SVMParser.BRZERO) mv.visitJumpInsn(IFEQ, taken);
+                    else {
+                        mv.visitInsn(ICONST_1);
+                        mv.visitJumpInsn(IF_ICMPEQ, taken);
+                    }
+                    branchEnd(taken, arg, next);
+                    return true;
+                }
+                case SVMParser.JS:
+                    pop();
+                    mv.visitVarInsn(ISTORE, L_ADDRESS);
+                    mv.visitVarInsn(ALOAD, L_VM);
+                    constant(next);
+                    mv.visitFieldInsn(PUTFIELD, VM, "ra", "I");
+                    storeSp();
+                    mv.visitVarInsn(ILOAD, L_ADDRESS);
+                    mv.visitInsn(IRETURN);
+                    return true;
+                case SVMParser.CALLMETHOD: // method address from the inline cache of the call site
+                    pop();
+                    mv.visitVarInsn(ISTORE, L_ADDRESS);
+                    storeSp();
+                    mv.visitVarInsn(ALOAD, L_VM);
+                    constant(next);
+                    mv.visitFieldInsn(PUTFIELD, VM, "ra", "I");
+                    mv.visitVarInsn(ALOAD, L_VM);
+                    constant(next - 2);
+                    mv.visitVarInsn(ILOAD, L_ADDRESS);
+                    constant(arg);
+                    mv.visitMethodInsn(INVOKEVIRTUAL, VM, "dispatch", "(III)I", false);
+                    mv.visitInsn(IRETURN);
+                    return true;
+                case SVMParser.STORERA:
+                    popToField("ra");
+                    return false;
+                case SVMParser.LOADRA:
+                    pushField("ra");
+                    return false;
+                case SVMParser.STORETM:
+                    popToField("tm");
+                    return false;
+                case SVMParser.LOADTM:
+                    pushField("tm");
+                    return false;
+                case SVMParser.STOREFP:
+                    popToField("fp");
+                    return false;
+                case SVMParser.LOADFP:
+                    pushField("fp");
+                    return false;
+                case SVMParser.COPYFP:
+                    mv.visitVarInsn(ALOAD, L_VM);
+                    mv.visitVarInsn(ILOAD, L_SP);
+                    mv.visitFieldInsn(PUTFIELD, VM, "fp", "I");
+                    return false;
+                case SVMParser.LOADHP:
+                    pushField("hp");
+                    return false;
+                case SVMParser.STOREHP:
+                    pop();
+                    mv.visitVarInsn(ISTORE, L_V1);
+                    storeSp();
+                    mv.visitVarInsn(ALOAD, L_VM);
+                    mv.visitVarInsn(ILOAD, L_V1);
+                    mv.visitMethodInsn(INVOKEVIRTUAL, VM, "setHp", "(I)V", false);
+                    return false;
+                case SVMParser.HPINC:
+                    storeSp();
+                    mv.visitVarInsn(ALOAD, L_VM);
+                    getField("hp");
+                    mv.visitInsn(ICONST_1);
+                    mv.visitInsn(IADD);
+                    mv.visitMethodInsn(INVOKEVIRTUAL, VM, "setHp", "(I)V", false);
+                    return false;
+                case SVMParser.NEW:
+                    storeSp();
+                    mv.visitVarInsn(ALOAD, L_VM);
+                    constant(arg);
+                    mv.visitMethodInsn(INVOKEVIRTUAL, VM, "newObject", "(I)V", false);
+                    loadRegisters();
+                    return false;
+                case SVMParser.PRINT:
+                    storeSp();
+                    mv.visitVarInsn(ALOAD, L_VM);
+                    mv.visitMethodInsn(INVOKEVIRTUAL, VM, "print", "()V", false);
+                    return false;
+                case SVMParser.HALT:
+                    storeSp();
+                    mv.visitInsn(ICONST_M1);
+                    mv.visitInsn(IRETURN);
+                    return true;
+                default:
+                    throw new IllegalArgumentException("Unsupported opcode "+opcode);
+            }
+        }
+
+        void loadRegisters() {
+            mv.visitVarInsn(ALOAD, L_VM);
+            mv.visitFieldInsn(GETFIELD, VM, "stack", "[I");
+            mv.visitVarInsn(ASTORE, L_STACK);
+            getField("stackBase");
+            mv.visitVarInsn(ISTORE, L_BASE);
+            getField("sp");
+            mv.visitVarInsn(ISTORE, L_SP);
+        }
+
+        void storeSp() {
+            mv.visitVarInsn(ALOAD, L_VM);
+            mv.visitVarInsn(ILOAD, L_SP);
+            mv.visitFieldInsn(PUTFIELD, VM, "sp", "I");
+        }
+
+        void getField(String name) {
+            mv.visitVarInsn(ALOAD, L_VM);
+            mv.visitFieldInsn(GETFIELD, VM, name, "I");
+        }
+
+        void constant(int value) {
+            if (value >= -1 && value <= 5) mv.visitInsn(ICONST_0 + value);
+            else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) mv.visitIntInsn(BIPUSH, value);
+            else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) mv.visitIntInsn(SIPUSH, value);
+            else mv.visitLdcInsn(value);
+        }
+
+        // stack, --sp - base (then the value and pushEnd)
+        void pushBegin() {
+            mv.visitVarInsn(ALOAD, L_STACK);
+            mv.visitIincInsn(L_SP, -1);
+            mv.visitVarInsn(ILOAD, L_SP);
+            mv.visitVarInsn(ILOAD, L_BASE);
+            mv.visitInsn(ISUB);
+        }
+
+        void pushEnd() {
+            mv.visitInsn(IASTORE);
+        }
+
+        // stack, sp - base
+        void top() {
+            mv.visitVarInsn(ALOAD, L_STACK);
+            mv.visitVarInsn(ILOAD, L_SP);
+            mv.visitVarInsn(ILOAD, L_BASE);
+            mv.visitInsn(ISUB);
+        }
+
+        // the popped value
+        void pop() {
+            top();
+            mv.visitInsn(IALOAD);
+            mv.visitIincInsn(L_SP, 1);
+        }
+
+        // the value at the address in L_ADDRESS, as ExecuteVM.load
+        void load() {
+            Label heap = new Label(), done = new Label();
+            mv.visitVarInsn(ILOAD, L_ADDRESS);
+            mv.visitVarInsn(ILOAD, L_BASE);
+            mv.visitJumpInsn(IF_ICMPLT, heap);
+            mv.visitVarInsn(ALOAD, L_STACK);
+            mv.visitVarInsn(ILOAD, L_ADDRESS);
+            mv.visitVarInsn(ILOAD, L_BASE);
+            mv.visitInsn(ISUB);
+            mv.visitInsn(IALOAD);
+            mv.visitJumpInsn(GOTO, done);
+            mv.visitLabel(heap);
+            mv.visitVarInsn(ALOAD, L_VM);
+            mv.visitVarInsn(ILOAD, L_ADDRESS);
+            mv.visitMethodInsn(INVOKEVIRTUAL, VM, "load", "(I)I", false);
+            mv.visitLabel(done);
+        }
+
+        // v1 = pop(); top = top <op> v1
+        void arithmetic(int op) {
+            pop();
+            mv.visitVarInsn(ISTORE, L_V1);
+            top();
+            mv.visitInsn(DUP2);
+            mv.visitInsn(IALOAD);
+            mv.visitVarInsn(ILOAD, L_V1);
+            mv.visitInsn(op);
+            mv.visitInsn(IASTORE);
+        }
+
+        void popToField(String name) {
+            mv.visitVarInsn(ALOAD, L_VM);
+            pop();
+            mv.visitFieldInsn(PUTFIELD, VM, name, "I");
+        }
+
+        void pushField(String name) {
+            pushBegin();
+            getField(name);
+            pushEnd();
+        }
+
+        // return next, or target if the branch is taken
+        void branchEnd(Label taken, int target, int next) {
+            constant(next);
+            mv.visitInsn(IRETURN);
+            mv.visitLabel(taken);
+            constant(target);
+            mv.visitInsn(IRETURN);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package compiler.svm;
+
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Binary object file format for assembled SVM code, loaded by memory-mapping the file
+ * instead of re-parsing assembly text.
+ * <pre>
+ * header:  int magic ("SVMB"), int version, int flags, int code length
+ * code:    code length ints (the words run by ExecuteVM)
+ * debug:   (only if flags has DEBUG) int label count,
+ *          then for each label: int address, int name length, name bytes (UTF-8)
+ * </pre>
+ * All values are big-endian.
+ */
+public class ObjectFile {
+
+    public static final int MAGIC = 0x53564D42; // "SVMB"
+    public static final int VERSION = 3;        // 2: code no longer depends on the VM memory size
+                                                // 3: superinstructions (lloc, ihp, bzero, bone, jsm) and new
+    public static final int DEBUG = 1;          // flag: label/debug section present
+
+    private static final int HEADER_SIZE = 4 * Integer.BYTES;
+
+    public final int[] code;
+    public final Map<String,Integer> labels;    // label addresses, empty without debug section
+
+    private ObjectFile(int[] code, Map<String,Integer> labels) {
+        this.code = code;
+        this.labels = Collections.unmodifiableMap(labels);
+    }
+
+    /**
+     * Writes assembled code to an object file.
+     *
+     * @param path   the file to write
+     * @param code   the code array
+     * @param length the number of code words to write
+     * @param labels label addresses for the debug section, or null to omit it
+     */
+    public static void write(Path path, int[] code, int length, Map<String,Integer> labels) throws IOException {
+        List<Map.Entry<String,Integer>> entries = new ArrayList<>();
+        List<byte[]> names = new ArrayList<>();
+        int size = HEADER_SIZE + length * Integer.BYTES;
+        if (labels != null) {
+            entries.addAll(labels.entrySet());
+            entries.sort(Map.Entry.<String,Integer>comparingByValue().thenComparing(Map.Entry.comparingByKey()));
+            size += Integer.BYTES;
+            for (Map.Entry<String,Integer> e : entries) {
+                byte[] name = e.getKey().getBytes(StandardCharsets.UTF_8);
+                names.add(name);
+                size += 2 * Integer.BYTES + name.length;
+            }
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(labels != null ? DEBUG : 0).putInt(length);
+        buffer.asIntBuffer().put(code, 0, length);
+        buffer.position(HEADER_SIZE + length * Integer.BYTES);
+        if (labels != null) {
+            buffer.putInt(entries.size());
+            for (int i = 0; i < entries.size(); i++)
+                buffer.putInt(entries.get(i).getValue()).putInt(names.get(i).length).put(names.get(i));
+        }
+        buffer.flip();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) channel.write(buffer);
+        }
+    }
+
+    /**
+     * Reads an object file by memory-mapping it: the code section is bulk-copied
+     * into the code array, with no parsing involved.
+     */
+    public static ObjectFile read(Path path) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            if (buffer.getInt() != MAGIC)
+                throw new IOException("Not an SVM object file: "+path);
+            int version = buffer.getInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported SVM object file version "+version+": "+path);
+            int flags = buffer.getInt();
+            int length = buffer.getInt();
+            if (length < 0 || length > buffer.remaining() / Integer.BYTES)
+                throw new IOException("Corrupted SVM object file: "+path);
+            int[] code = new int[length];
+            buffer.asIntBuffer().get(code);
+            buffer.position(HEADER_SIZE + length * Integer.BYTES);
+            Map<String,Integer> labels = new HashMap<>();
+            if ((flags & DEBUG) != 0) {
+                int count = buffer.getInt();
+                if (count < 0)
+                    throw new IOException("Corrupted SVM object file: "+path);
+                for (int i = 0; i < count; i++) {
+                    int address = buffer.getInt();
+                    int nameLength = buffer.getInt();
+                    if (nameLength < 0 || nameLength > buffer.remaining())
+                        throw new IOException("Corrupted SVM object file: "+path);
+                    byte[] name = new byte[nameLength];
+                    buffer.get(name);
+                    labels.put(new String(name, StandardCharsets.UTF_8), address);
+                }
+            }
+            return new ObjectFile(code, labels);
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Corrupted SVM object file: "+path, e);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package compiler.svm;
+
+import java.util.*;
+
+/**
+ * Peephole optimizer of generated SVM code, run between code generation and the {@link Assembler}.
+ * <p>
+ * Each pass walks the code trying the rules, in order, at every instruction; when a rule applies
+ * the matched instructions are replaced and the rules are tried again from the replacement.
+ * Passes are repeated until no rule applies, as a rewrite can expose new matches (e.g. a branch
+ * to the next instruction, once the code in between is removed). Rules always shrink the code,
+ * hence optimization terminates.
+ * <p>
+ * The rule set is pluggable: the default one is {@link PeepholeRules#defaults()}.
+ * The number of rewrites of each rule is kept in {@link #hits()}.
+ */
+public class Peephole {
+
+    /**
+     * The replacement of the instructions matched by a rule.
+     */
+    public static final class Replacement {
+        final int length;   // number of matched instructions
+        final Code code;    // instructions taking their place
+
+        private Replacement(int length, Code code) {
+            this.length = length;
+            this.code = code;
+        }
+    }
+
+    /**
+     * Returns the replacement of the first length instructions of a window with code
+     * (null to delete them).
+     */
+    public static Replacement replace(int length, Code code) {
+        return new Replacement(length, code != null ? code : new Code());
+    }
+
+    private static final int MAX_PASSES = 16;
+
+    private final List<PeepholeRule> rules;
+    private final Map<String,Integer> hits = new LinkedHashMap<>();
+    private final Map<String,Integer> references = new HashMap<>();
+
+    public Peephole() {
+        this(PeepholeRules.defaults());
+    }
+
+    public Peephole(List<PeepholeRule> rules) {
+        this.rules = List.copyOf(rules);
+        for (PeepholeRule rule : rules) hits.put(rule.name(), 0);
+    }
+
+    /**
+     * Optimizes code in place.
+     *
+     * @return the optimized code (code itself)
+     */
+    public Code optimize(Code code) {
+        boolean changed = true;
+        for (int pass = 0; changed && pass < MAX_PASSES; pass++) {
+            countReferences(code);
+            changed = false;
+            Instruction prev = null;
+            Instruction ins = code.first();
+            while (ins != null) {
+                Replacement r = null;
+                PeepholeRule rule = null;
+                for (Iterator<PeepholeRule> i = rules.iterator(); r == null && i.hasNext(); ) {
+                    rule = i.next();
+                    r = rule.apply(ins, this);
+                }
+                if (r == null) {
+                    prev = ins;
+                    ins = ins.next;
+                    continue;
+                }
+                if (r.code.size() >= r.length)
+                    throw new IllegalStateException("Peephole rule "+rule.name()+" does not shrink the code");
+                hits.merge(rule.name(), 1, Integer::sum);
+                ins = code.replace(prev, r.length, r.code);
+                changed = true;
+            }
+        }
+        return code;
+    }
+
+    /**
+     * Returns the number of instructions referring to a label (branches and pushes of its address),
+     * as counted at the beginning of the current pass: removing references within a pass
+     * can only make it higher than the actual one.
+     */
+    public int references(String label) {
+        return references.getOrDefault(label, 0);
+    }
+
+    private void countReferences(Code code) {
+        references.clear();
+        for (Instruction i : code)
+            if (!i.isLabelDef() && i.label != null) references.merge(i.label, 1, Integer::sum);
+    }
+
+    /**
+     * Returns the number of rewrites of each rule, in rule order.
+     */
+    public Map<String,Integer> hits() {
+        return Collections.unmodifiableMap(hits);
+    }
+
+    /**
+     * Returns the total number of rewrites.
+     */
+    public int rewrites() {
+        int total = 0;
+        for (int h : hits.values()) total += h;
+        return total;
+    }
+}
@@ -0,0 +1,25 @@
+package compiler.svm;
+
+/**
+ * A rewriting rule of the {@link Peephole} optimizer.
+ * <p>
+ * A rule looks at the instructions starting at a given one (following {@link Instruction#next()})
+ * and, if they match its pattern, returns a shorter replacement for them.
+ */
+public interface PeepholeRule {
+
+    /**
+     * Returns the rule name, used in the hit counts of {@link Peephole#hits()}.
+     */
+    String name();
+
+    /**
+     * Tries the rule on the instructions starting at ins.
+     *
+     * @param ins     the first instruction of the window
+     * @param context the optimizer, giving the number of references to each label
+     * @return null if the rule does not apply, otherwise the code replacing the matched
+     *         instructions (see {@link Peephole#replace(int, Code)})
+     */
+    Peephole.Replacement apply(Instruction ins, Peephole context);
+}
@@ -0,0 +1,152 @@
+package compiler.svm;
+
+import java.util.*;
+import java.util.function.BiFunction;
+
+/**
+ * The rules of the default {@link Peephole} rule set:
+ * <pre>
+ * stm; ltm                        -&gt;  (nothing)     if tm is written before being read again
+ * push 0; add   push 0; sub       -&gt;  (nothing)
+ * push 1; mult  push 1; div       -&gt;  (nothing)
+ * b l; l:                         -&gt;  l:
+ * X l1; push a; b l2; l1: push c; l2: push k; beq l3
+ *                                 -&gt;  X l3                 if c == k != a
+ *                                 -&gt;  X l1; b l3; l1:      if a == k != c
+ * l:                              -&gt;  (nothing)     if l is not referenced
+ * b l; i1; ...; in; l':           -&gt;  b l; l':      (unreachable code after b or halt)
+ * </pre>
+ * where X is {@code beq} or {@code bleq}. The fourth rule removes the 0/1 value materialized
+ * by comparisons (and by {@code not}, {@code and}, {@code or}) when it is only used by a conditional
+ * branch, as in an if; labels l1 and l2 must not be referenced elsewhere (l1 only in the first case).
+ */
+public class PeepholeRules {
+
+    private PeepholeRules() {}
+
+    /**
+     * Returns the default rule set.
+     */
+    public static List<PeepholeRule> defaults() {
+        return List.of(deadStoreTm(), neutralOperation(), branchToNext(), branchOnBoolean(), unusedLabel(), unreachable());
+    }
+
+    private static PeepholeRule rule(String name, BiFunction<Instruction, Peephole, Peephole.Replacement> apply) {
+        return new PeepholeRule() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public Peephole.Replacement apply(Instruction ins, Peephole context) {
+                return apply.apply(ins, context);
+            }
+        };
+    }
+
+    private static boolean is(Instruction ins, int opcode) {
+        return ins != null && ins.opcode == opcode;
+    }
+
+    // push of an integer (not of a label)
+    private static boolean isPush(Instruction ins, int value) {
+        return is(ins, SVMParser.PUSH) && ins.label == null && ins.arg == value;
+    }
+
+    private static boolean isLabel(Instruction ins, String label) {
+        return ins != null && ins.isLabelDef() && ins.label.equals(label);
+    }
+
+    /**
+     * {@code stm; ltm} with no following read of tm: the value is left on the stack.
+     */
+    public static PeepholeRule deadStoreTm() {
+        return rule("stm-ltm", (ins, context) -> {
+            if (!is(ins, SVMParser.STORETM) || !is(ins.next, SVMParser.LOADTM)) return null;
+            for (Instruction i = ins.next.next; i != null; i = i.next) {
+                if (i.opcode == SVMParser.STORETM || i.opcode == SVMParser.HALT) return Peephole.replace(2, null);
+                if (i.opcode == SVMParser.LOADTM || i.isLabelDef() || i.label != null || i.opcode == SVMParser.JS)
+                    return null; // read, or control flow: tm may be live
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Addition or subtraction of 0, multiplication or division by 1.
+     */
+    public static PeepholeRule neutralOperation() {
+        return rule("neutral-op", (ins, context) -> {
+            Instruction op = ins.next;
+            if (isPush(ins, 0) && (is(op, SVMParser.ADD) || is(op, SVMParser.SUB))
+                    || isPush(ins, 1) && (is(op, SVMParser.MULT) || is(op, SVMParser.DIV)))
+                return Peephole.replace(2, null);
+            return null;
+        });
+    }
+
+    /**
+     * Unconditional branch to one of the labels defined right after it.
+     */
+    public static PeepholeRule branchToNext() {
+        return rule("branch-to-next", (ins, context) -> {
+            if (!is(ins, SVMParser.BRANCH)) return null;
+            for (Instruction i = ins.next; i != null && i.isLabelDef(); i = i.next)
+                if (i.label.equals(ins.label)) return Peephole.replace(1, null);
+            return null;
+        });
+    }
+
+    /**
+     * Boolean value materialized by a branch and then tested by {@code push k; beq}.
+     */
+    public static PeepholeRule branchOnBoolean() {
+        return rule("branch-on-bool", (ins, context) -> {
+            if (!is(ins, SVMParser.BRANCHEQ) && !is(ins, SVMParser.BRANCHLESSEQ)) return null;
+            Instruction[] w = new Instruction[8];
+            w[0] = ins;
+            for (int j = 1; j < w.length; j++) {
+                w[j] = w[j-1].next;
+                if (w[j] == null) return null;
+            }
+            String l1 = ins.label, l2 = w[2].label;
+            if (!(is(w[1], SVMParser.PUSH) && w[1].label == null && is(w[2], SVMParser.BRANCH)
+                    && isLabel(w[3], l1) && is(w[4], SVMParser.PUSH) && w[4].label == null
+                    && isLabel(w[5], l2) && is(w[6], SVMParser.PUSH) && w[6].label == null
+                    && is(w[7], SVMParser.BRANCHEQ) && context.references(l2) == 1))
+                return null;
+            int a = w[1].arg, c = w[4].arg, k = w[6].arg;
+            String l3 = w[7].label;
+            if (c == k && a != k && context.references(l1) == 1)
+                return Peephole.replace(8, Code.jump(ins.opcode, l3));
+            if (a == k && c != k)
+                return Peephole.replace(8, Code.copy(ins).append(Code.jump(SVMParser.BRANCH, l3)).append(Code.label(l1)));
+            return null;
+        });
+    }
+
+    /**
+     * Definition of a label that is never referenced.
+     */
+    public static PeepholeRule unusedLabel() {
+        return rule("unused-label", (ins, context) -> {
+            if (ins.isLabelDef() && context.references(ins.label) == 0) return Peephole.replace(1, null);
+            return null;
+        });
+    }
+
+    /**
+     * Instructions after an unconditional branch or halt, up to the next label definition
+     * ({@code js} is not considered, as it is used both for returns and for calls).
+     */
+    public static PeepholeRule unreachable() {
+        return rule("unreachable", (ins, context) -> {
+            if (!is(ins, SVMParser.BRANCH) && !is(ins, SVMParser.HALT)) return null;
+            int n = 0;
+            for (Instruction i = ins.next; i != null && !i.isLabelDef(); i = i.next) n++;
+            if (n == 0) return null;
+            return Peephole.replace(n+1, Code.copy(ins));
+        });
+    }
+}
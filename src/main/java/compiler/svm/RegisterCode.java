@@ -0,0 +1,69 @@
+package compiler.svm;
+
+import java.util.*;
+
+/**
+ * A sequence of register machine instructions, built by the register code generator
+ * (see {@link InstructionList}).
+ */
+public class RegisterCode extends InstructionList<RegisterInstruction, RegisterCode> {
+
+    public RegisterCode() {}
+
+    private RegisterCode(RegisterInstruction i) {
+        super(i);
+    }
+
+    // single instruction fragments
+
+    public static RegisterCode op(int opcode, int... args) {
+        if (args.length != RegisterInstruction.operands(opcode))
+            throw new IllegalArgumentException(RegisterInstruction.mnemonic(opcode)+" takes "
+                +RegisterInstruction.operands(opcode)+" operands");
+        return new RegisterCode(new RegisterInstruction(opcode, args, null));
+    }
+
+    /**
+     * Returns an instruction whose last operand is the address of a label, e.g. a branch.
+     *
+     * @param args the other operands
+     */
+    public static RegisterCode ref(int opcode, String label, int... args) {
+        if (args.length+1 != RegisterInstruction.operands(opcode))
+            throw new IllegalArgumentException(RegisterInstruction.mnemonic(opcode)+" takes "
+                +RegisterInstruction.operands(opcode)+" operands");
+        return new RegisterCode(new RegisterInstruction(opcode, Arrays.copyOf(args, args.length+1), label));
+    }
+
+    public static RegisterCode label(String label) {
+        return new RegisterCode(new RegisterInstruction(RegisterInstruction.LABEL_DEF, new int[0], label));
+    }
+
+    /**
+     * Translates the code into the code array run by {@link RegisterVM}: each instruction
+     * is its opcode followed by its operands, labels are replaced by their address.
+     */
+    public int[] assemble() {
+        int[] code = new int[ExecuteVM.CODESIZE];
+        int i = 0;
+        Map<String,Integer> labelDef = new HashMap<>();
+        Map<Integer,String> labelRef = new HashMap<>();
+        for (RegisterInstruction ins = first; ins != null; ins = ins.next) {
+            if (ins.isLabelDef()) {
+                labelDef.put(ins.label, i);
+                continue;
+            }
+            if (i+4 > code.length) code = Arrays.copyOf(code, 2*code.length); // grow code array as needed
+            code[i++] = ins.opcode;
+            for (int arg : ins.args) code[i++] = arg;
+            if (ins.label != null) labelRef.put(i-1, ins.label);
+        }
+        for (Integer j: labelRef.keySet()) {
+            Integer address = labelDef.get(labelRef.get(j));
+            if (address == null)
+                throw new IllegalArgumentException("Undefined label "+labelRef.get(j));
+            code[j] = address;
+        }
+        return Arrays.copyOf(code, i);
+    }
+}
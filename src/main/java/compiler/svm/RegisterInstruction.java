@@ -0,0 +1,89 @@
+package compiler.svm;
+
+/**
+ * A single instruction (or label definition) of the register machine run by {@link RegisterVM}.
+ * <p>
+ * Registers are the cells of the current frame, named by their offset from {@code fp}:
+ * register 0 holds the access link, registers 1..n the parameters, registers -2, -3, ...
+ * the local declarations and then the temporaries. An instruction has up to three operands,
+ * registers or integers; the last operand of a branch (and of {@code li}) can be a label,
+ * resolved by {@link RegisterCode#assemble()}.
+ * <pre>
+ * li rd k           rd = k                 add/sub/mult/div rd rs rt   rd = rs op rt
+ * mov rd rs         rd = rs                addi rd rs k                rd = rs + k
+ * seq rd rs rt      rd = rs == rt          sle rd rs rt                rd = rs &lt;= rt
+ * not rd rs         rd = rs == 0           lw rd rs k                  rd = memory[rs + k]
+ * lfp rd            rd = fp                lhp rd                      rd = hp
+ * swhp rs           memory[hp++] = rs      new rd rs n                 rd = new object (see RegisterVM)
+ * b l               jump to l              bzero rs l / bone rs l      jump to l if rs == 0 / rs == 1
+ * call rd rf b      call rf with frame b   ret rs                      return rs into rd of the caller
+ * enter k           allocate k cells       print rs                    halt
+ * </pre>
+ */
+public class RegisterInstruction extends InstructionList.Item<RegisterInstruction> {
+
+    public static final int LABEL_DEF = 0; // pseudo-opcode of a label definition "label:"
+
+    public static final int LI = 1;
+    public static final int MOV = 2;
+    public static final int ADD = 3;
+    public static final int SUB = 4;
+    public static final int MULT = 5;
+    public static final int DIV = 6;
+    public static final int ADDI = 7;
+    public static final int SEQ = 8;
+    public static final int SLE = 9;
+    public static final int NOT = 10;
+    public static final int LW = 11;
+    public static final int LFP = 12;
+    public static final int LHP = 13;
+    public static final int SWHP = 14;
+    public static final int NEW = 15;
+    public static final int BRANCH = 16;
+    public static final int BRZERO = 17;
+    public static final int BRONE = 18;
+    public static final int CALL = 19;
+    public static final int RET = 20;
+    public static final int ENTER = 21;
+    public static final int PRINT = 22;
+    public static final int HALT = 23;
+
+    private static final String[] MNEMONICS = {null, "li", "mov", "add", "sub", "mult", "div", "addi",
+        "seq", "sle", "not", "lw", "lfp", "lhp", "swhp", "new", "b", "bzero", "bone", "call", "ret",
+        "enter", "print", "halt"};
+    private static final int[] OPERANDS = {0, 2, 2, 3, 3, 3, 3, 3, 3, 3, 2, 3, 1, 1, 1, 3, 1, 2, 2, 3, 1, 1, 1, 0};
+
+    public final int opcode;
+    public final int[] args;    // integer operands (the last one unused if label is not null)
+    public final String label;  // label operand (always the last one), or label defined by LABEL_DEF
+
+    RegisterInstruction(int opcode, int[] args, String label) {
+        this.opcode = opcode;
+        this.args = args;
+        this.label = label;
+    }
+
+    public boolean isLabelDef() {
+        return opcode == LABEL_DEF;
+    }
+
+    /**
+     * Returns the number of operands of an opcode (each stored in a code word following the opcode).
+     */
+    public static int operands(int opcode) {
+        return OPERANDS[opcode];
+    }
+
+    public static String mnemonic(int opcode) {
+        return MNEMONICS[opcode];
+    }
+
+    @Override
+    public String toString() {
+        if (isLabelDef()) return label+":";
+        StringBuilder sb = new StringBuilder(mnemonic(opcode));
+        for (int j = 0; j < args.length; j++)
+            sb.append(' ').append(label != null && j == args.length-1 ? label : Integer.toString(args[j]));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,209 @@
+package compiler.svm;
+
+import java.util.Arrays;
+
+import static compiler.svm.RegisterInstruction.*;
+
+/**
+ * Interpreter of register machine code (see {@link RegisterInstruction}), an alternative
+ * to the stack-based {@link ExecuteVM}: operands are read from and results written to
+ * frame cells directly, with no push/pop traffic through {@code sp}.
+ * <p>
+ * Memory (heap, stack and garbage collector) is the same as in {@link ExecuteVM}. A frame holds,
+ * from {@code fp} up, the access link and the parameters, written by the caller in its own
+ * registers; below {@code fp} the callee allocates, with {@code enter}, its declarations and
+ * temporaries. Frames are in the memory stack (between {@code sp} and the memory size), hence
+ * they are all roots of the garbage collector.
+ * <p>
+ * {@code call rd rf b} runs the code at the address held in register rf with a new frame
+ * starting at register b of the caller (so that register 0 of the callee is register b
+ * of the caller); return address, caller {@code fp} and {@code sp} and rd are saved in a
+ * separate control stack, and restored by {@code ret rs}, that writes the result in rd.
+ * <p>
+ * {@code new rd rs n} allocates an object with the n fields in registers rs, rs-1, ..., rs-n+1
+ * and the dispatch pointer in register rs-n, with the same layout as {@code new} in
+ * {@link ExecuteVM}, and writes the object pointer in rd.
+ */
+public class RegisterVM {
+
+    private final int[] code;
+    private final ExecuteVM memory;
+
+    private int ip = 0;
+    private int fp;
+
+    private int[] calls = new int[64]; // control stack: return address, fp, sp, result register of each call
+    private int depth = 0;
+
+    private long executed = 0;
+    private boolean counting = false; // whether cpu() counts the executed instructions
+
+    public RegisterVM(int[] code) {
+      this(code, ExecuteVM.MEMSIZE, false);
+    }
+
+    /**
+     * Creates a VM with the given memory size.
+     *
+     * @param code     the code to run, assembled by {@link RegisterCode#assemble()}
+     * @param memSize  the number of memory cells (initial value of sp and fp)
+     * @param growable whether memory is allocated on demand, as the heap and the stack grow,
+     *                 rather than upfront
+     */
+    public RegisterVM(int[] code, int memSize, boolean growable) {
+      this.code = code;
+      this.memory = new ExecuteVM(memSize, growable);
+      this.fp = memSize;
+    }
+
+    /**
+     * Returns the garbage collector of the VM heap.
+     */
+    public GarbageCollector gc() {
+      return memory.gc();
+    }
+
+    /**
+     * Makes {@link #cpu()} count the executed instructions (see {@link #executedInstructions()}).
+     * Counting is off by default, so that the interpreter loop does not pay for it.
+     */
+    public void countInstructions(boolean counting) {
+      this.counting = counting;
+    }
+
+    /**
+     * Returns the number of instructions executed so far while counting them.
+     */
+    public long executedInstructions() {
+      return executed;
+    }
+
+    public void cpu() {
+      final int[] code = this.code;
+      final ExecuteVM m = memory;
+      int ip = this.ip;
+      int fp = this.fp;
+      int[] s = m.stack;            // register r of the current frame is s[b+r]
+      int b = fp - m.stackBase;
+      int address, n, r;
+      final boolean counting = this.counting; // read once, outside the loop
+      while ( true ) {
+        if (counting) executed++;
+        switch ( code[ip] ) {
+          case LI :
+            s[b+code[ip+1]] = code[ip+2];
+            ip += 3;
+            break;
+          case MOV :
+            s[b+code[ip+1]] = s[b+code[ip+2]];
+            ip += 3;
+            break;
+          case ADD :
+            s[b+code[ip+1]] = s[b+code[ip+2]] + s[b+code[ip+3]];
+            ip += 4;
+            break;
+          case SUB :
+            s[b+code[ip+1]] = s[b+code[ip+2]] - s[b+code[ip+3]];
+            ip += 4;
+            break;
+          case MULT :
+            s[b+code[ip+1]] = s[b+code[ip+2]] * s[b+code[ip+3]];
+            ip += 4;
+            break;
+          case DIV :
+            s[b+code[ip+1]] = s[b+code[ip+2]] / s[b+code[ip+3]];
+            ip += 4;
+            break;
+          case ADDI :
+            s[b+code[ip+1]] = s[b+code[ip+2]] + code[ip+3];
+            ip += 4;
+            break;
+          case SEQ :
+            s[b+code[ip+1]] = s[b+code[ip+2]] == s[b+code[ip+3]] ? 1 : 0;
+            ip += 4;
+            break;
+          case SLE :
+            s[b+code[ip+1]] = s[b+code[ip+2]] <= s[b+code[ip+3]] ? 1 : 0;
+            ip += 4;
+            break;
+          case NOT :
+            s[b+code[ip+1]] = s[b+code[ip+2]] == 0 ? 1 : 0;
+            ip += 3;
+            break;
+          case LW :
+            s[b+code[ip+1]] = m.load(s[b+code[ip+2]] + code[ip+3]);
+            ip += 4;
+            break;
+          case LFP :
+            s[b+code[ip+1]] = fp;
+            ip += 2;
+            break;
+          case LHP :
+            s[b+code[ip+1]] = m.hp;
+            ip += 2;
+            break;
+          case SWHP :
+            m.store(m.hp, s[b+code[ip+1]]);
+            m.setHp(m.hp+1);
+            ip += 2;
+            break;
+          case NEW : // fields from rs down, then the dispatch pointer
+            r = code[ip+2];
+            n = code[ip+3];
+            address = m.allocate(n+1);
+            for (int f = 0; f < n; f++) m.store(address+n-1-f, s[b+r-f]);
+            m.store(address+n, s[b+r-n]);
+            s[b+code[ip+1]] = address+n;
+            ip += 4;
+            break;
+          case BRANCH :
+            ip = code[ip+1];
+            break;
+          case BRZERO :
+            ip = s[b+code[ip+1]] == 0 ? code[ip+2] : ip+3;
+            break;
+          case BRONE :
+            ip = s[b+code[ip+1]] == 1 ? code[ip+2] : ip+3;
+            break;
+          case CALL :
+            if (depth+4 > calls.length) calls = Arrays.copyOf(calls, 2*calls.length);
+            calls[depth++] = ip+4;
+            calls[depth++] = fp;
+            calls[depth++] = m.sp;
+            calls[depth++] = code[ip+1];
+            address = s[b+code[ip+2]];
+            fp += code[ip+3];
+            b += code[ip+3];
+            ip = address;
+            break;
+          case RET :
+            r = s[b+code[ip+1]];
+            address = calls[--depth];
+            m.sp = calls[--depth];
+            fp = calls[--depth];
+            ip = calls[--depth];
+            b = fp - m.stackBase;
+            s[b+address] = r;
+            break;
+          case ENTER : // allocate the frame below fp
+            address = fp - code[ip+1];
+            m.sp = address;
+            if (address < m.stackLimit) m.growStack(address);
+            s = m.stack;
+            b = fp - m.stackBase;
+            ip += 2;
+            break;
+          case PRINT :
+            System.out.println(s[b+code[ip+1]]);
+            ip += 2;
+            break;
+          case HALT :
+            this.ip = ip;
+            this.fp = fp;
+            return;
+          default :
+            throw new IllegalStateException("Invalid opcode "+code[ip]+" at address "+ip);
+        }
+      }
+    }
+}
@@ -0,0 +1,90 @@
+package compiler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.stream.Stream;
+
+import org.antlr.v4.runtime.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import compiler.lib.*;
+import compiler.svm.*;
+
+/**
+ * Checks that {@link AssemblyLoader} assembles the code generated for the example and test programs
+ * (and for a program larger than the initial code size) into the same code array as SVMParser.
+ */
+class AssemblyLoaderTest {
+
+	static Stream<Path> programs() throws IOException {
+		return GoldenOutputTest.programFiles(GoldenOutputTest.EXAMPLES, GoldenOutputTest.PROGRAMS).stream();
+	}
+
+	@ParameterizedTest(name = "{0}")
+	@MethodSource("programs")
+	void sameCodeAsParser(Path program) throws Exception {
+		String assembly = assembly(new String(Files.readAllBytes(program), StandardCharsets.ISO_8859_1));
+		assertArrayEquals(parse(assembly), load(assembly));
+	}
+
+	@Test
+	void largeProgram() throws Exception {
+		StringBuilder source = new StringBuilder("let\n  fun f0:int (x:int) x;\n");
+		for (int i = 1; i < 2000; i++)
+			source.append("  fun f").append(i).append(":int (x:int) if (x <= ").append(i).append(") then { f")
+				.append(i-1).append("(x + 1) } else { x * ").append(i).append(" };\n");
+		String assembly = assembly(source.append("in print(f1999(0));\n").toString());
+		int[] code = load(assembly);
+		assertTrue(code.length > ExecuteVM.CODESIZE);
+		assertArrayEquals(parse(assembly), code);
+	}
+
+	@Test
+	void commentsAndLineEnds() throws Exception {
+		String assembly = assembly(Files.readString(GoldenOutputTest.EXAMPLES.resolve("quicksort.fool"), StandardCharsets.ISO_8859_1));
+		String edited = "/* header\n */" + assembly.replace("\n", " /* x */\r\n\t").replace(":", " :");
+		assertArrayEquals(parse(assembly), load(edited));
+	}
+
+	@Test
+	void mappedFile(@TempDir Path dir) throws Exception {
+		String assembly = assembly(Files.readString(GoldenOutputTest.EXAMPLES.resolve("bankloan.fool")));
+		Path file = Files.writeString(dir.resolve("bankloan.asm"), assembly);
+		assertArrayEquals(parse(assembly), AssemblyLoader.load(file));
+	}
+
+	@ParameterizedTest
+	@ValueSource(strings = {"push", "push x", "foo", "b push", "push 05", "push -0", "push 99999999999", "/* x", "add ;"})
+	void rejectsInvalidText(String assembly) {
+		assertThrows(IOException.class, () -> load(assembly));
+	}
+
+	// assembly text of the code generated for a program
+	static String assembly(String source) throws Exception {
+		FOOLParser parser = new FOOLParser(new CommonTokenStream(new FOOLLexer(CharStreams.fromString(source))));
+		Node ast = new ASTGenerationSTVisitor().visit(parser.prog());
+		new SymbolTableASTVisitor().visit(ast);
+		CompilationContext context = new CompilationContext();
+		new TypeCheckEASTVisitor(context).visit(ast);
+		return new CodeGenerationASTVisitor(context).visit(ast).toString();
+	}
+
+	static int[] parse(String assembly) {
+		SVMParser parser = new SVMParser(new CommonTokenStream(new SVMLexer(CharStreams.fromString(assembly))));
+		parser.assembly();
+		assertEquals(0, parser.getNumberOfSyntaxErrors());
+		return parser.code;
+	}
+
+	static int[] load(String assembly) throws IOException {
+		return AssemblyLoader.load(ByteBuffer.wrap(assembly.getBytes(StandardCharsets.ISO_8859_1)));
+	}
+}
@@ -0,0 +1,61 @@
+package compiler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks that {@link BatchCompiler} prints the same output (in the order of the files) whatever the
+ * number of threads, the same as a serial run, and that a file failing with an error does not stop
+ * the batch.
+ */
+class BatchCompilerTest {
+
+	static final Path BASE_DIR = Paths.get(".").toAbsolutePath().normalize();
+
+	@Test
+	void sameOutputOnOneAndManyThreads() throws Exception {
+		List<Path> files = GoldenOutputTest.programFiles(GoldenOutputTest.EXAMPLES, GoldenOutputTest.PROGRAMS).stream()
+			.map(Path::toAbsolutePath).toList();
+		String serial = withoutTimes(compileAll(files, 1, "--run"));
+		assertEquals(serial, withoutTimes(compileAll(files, 4, "--run")));
+		for (Path file : files) // every program ran, and printed its golden output
+			assertTrue(serial.contains(Files.readString(GoldenOutputTest.GOLDEN.resolve(GoldenOutputTest.name(file) + ".out"))
+				+ BASE_DIR.relativize(file) + ":"), file.toString());
+	}
+
+	@Test
+	void stackOverflowFailsOnlyItsFile(@TempDir Path dir) throws Exception {
+		Path deep = Files.writeString(dir.resolve("deep.fool"), "(".repeat(100000) + "1" + ")".repeat(100000) + ";");
+		Path program = GoldenOutputTest.PROGRAMS.resolve("tail_calls.fool").toAbsolutePath();
+		String output = compileAll(List.of(program, deep, program), 2, "--run");
+		assertTrue(output.contains("(failed: java.lang.StackOverflowError)"), output);
+		assertTrue(output.contains("Compiled 3 files (1 failed)"), output);
+		String golden = Files.readString(GoldenOutputTest.GOLDEN.resolve("tail_calls.out"));
+		assertTrue(output.indexOf(golden, output.indexOf("deep.fool:")) >= 0, "the file after deep.fool did not run:\n" + output);
+	}
+
+	// what a batch of files prints
+	static String compileAll(List<Path> files, int threads, String... flags) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PrintStream stdout = System.out;
+		System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+		try {
+			new BatchCompiler(List.of(flags)).compileAll(files, threads, BASE_DIR);
+		} finally {
+			System.setOut(stdout);
+		}
+		return out.toString(StandardCharsets.UTF_8);
+	}
+
+	// the output of the files, without the times of the phases and the final summary
+	static String withoutTimes(String output) {
+		return output.substring(0, output.lastIndexOf("\nCompiled ")).replaceAll("[0-9]+\\.[0-9]+ ms", "ms");
+	}
+}
@@ -0,0 +1,91 @@
+package compiler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import compiler.svm.ObjectFile;
+
+/**
+ * Checks that the keys of {@link CompileCache} entries depend on the source and on every option
+ * changing the generated code, that hits and misses are counted, and that the least recently used
+ * entries are evicted when the cache exceeds its maximum size.
+ */
+class CompileCacheTest {
+
+	static final byte[] SOURCE = "let var x:int = 1; in print(x);".getBytes(StandardCharsets.UTF_8);
+	static final int[] CODE = {1, 2, 3, 4};
+	static final Map<String,Integer> LABELS = Map.of("main", 0);
+
+	@Test
+	void keyDependsOnSource(@TempDir Path dir) throws IOException {
+		CompileCache cache = new CompileCache(dir, CompileCache.DEFAULT_MAX_SIZE);
+		String options = CompileCache.options(true, true, true, true, true, true, true);
+		assertEquals(cache.key(SOURCE, options), cache.key(SOURCE.clone(), options));
+		byte[] edited = SOURCE.clone();
+		edited[edited.length - 3] = '2';
+		assertNotEquals(cache.key(SOURCE, options), cache.key(edited, options));
+	}
+
+	@Test
+	void keyDependsOnEveryOption(@TempDir Path dir) throws IOException {
+		CompileCache cache = new CompileCache(dir, CompileCache.DEFAULT_MAX_SIZE);
+		Set<String> keys = new HashSet<>();
+		for (int i = 0; i < 1 << 7; i++)
+			keys.add(cache.key(SOURCE, CompileCache.options((i & 1) != 0, (i & 2) != 0, (i & 4) != 0,
+				(i & 8) != 0, (i & 16) != 0, (i & 32) != 0, (i & 64) != 0)));
+		assertEquals(1 << 7, keys.size());
+	}
+
+	@Test
+	void countsHitsAndMisses(@TempDir Path dir) throws IOException {
+		CompileCache cache = new CompileCache(dir, CompileCache.DEFAULT_MAX_SIZE);
+		String key = cache.key(SOURCE, "");
+		assertNull(cache.get(key));
+		cache.put(key, Arrays.copyOf(CODE, 100), CODE.length, LABELS);
+		ObjectFile object = cache.get(key);
+		assertNotNull(object);
+		assertArrayEquals(CODE, object.code);
+		assertEquals(LABELS, object.labels);
+		assertNotNull(cache.get(key));
+		assertNull(cache.get(cache.key(SOURCE, "other")));
+		assertEquals(2, cache.hits());
+		assertEquals(2, cache.misses());
+	}
+
+	@Test
+	void evictsLeastRecentlyUsedEntries(@TempDir Path dir) throws IOException {
+		long entrySize = entrySize(dir.resolve("size"));
+		CompileCache cache = new CompileCache(dir.resolve("cache"), 2 * entrySize + entrySize / 2); // room for two entries
+		String a = cache.key(SOURCE, "a"), b = cache.key(SOURCE, "b"), c = cache.key(SOURCE, "c");
+		cache.put(a, CODE, CODE.length, LABELS);
+		cache.put(b, CODE, CODE.length, LABELS);
+		long now = System.currentTimeMillis();
+		Files.setLastModifiedTime(entry(dir, a), FileTime.fromMillis(now - 20_000));
+		Files.setLastModifiedTime(entry(dir, b), FileTime.fromMillis(now - 10_000));
+		assertNotNull(cache.get(a)); // a becomes the most recently used
+
+		cache.put(c, CODE, CODE.length, LABELS);
+		assertTrue(Files.exists(entry(dir, a)));
+		assertFalse(Files.exists(entry(dir, b)));
+		assertTrue(Files.exists(entry(dir, c)));
+		assertNull(cache.get(b));
+	}
+
+	private static Path entry(Path dir, String key) {
+		return dir.resolve("cache").resolve(key + ".svm");
+	}
+
+	// size of the object file of an entry
+	private static long entrySize(Path file) throws IOException {
+		ObjectFile.write(file, CODE, CODE.length, LABELS);
+		return Files.size(file);
+	}
+}
@@ -0,0 +1,97 @@
+package compiler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the protocol of {@link CompileServer}: the responses to compile, run, stats and quit requests,
+ * and the status line ending each of them, for successful, erroneous and failing compilations.
+ */
+class CompileServerTest {
+
+	static final String STATUS_TIME = " [0-9]+\\.[0-9]{2}"; // latency in ms, with a decimal point in every locale
+
+	final List<Path> files = new ArrayList<>(); // written in the project folder by the test
+
+	@AfterEach
+	void deleteFiles() throws IOException {
+		for (Path file : files) Files.deleteIfExists(file);
+	}
+
+	@Test
+	void statusLines() throws Exception {
+		Path errors = file("let var x:bool = 1; in print(x);");
+		List<String> lines = serve(
+			"compile src/test/resources/programs/tail_calls.fool",
+			"compile " + errors + " --no-opt",
+			"run src/test/resources/failing/null_receiver.fool",
+			"run missing.fool",
+			"compile ../outside.fool",
+			"compile src/test/resources/programs/tail_calls.fool --no-such-flag",
+			"compile",
+			"frobnicate x.fool",
+			"",
+			"quit",
+			"compile src/test/resources/programs/tail_calls.fool");
+		List<String> status = lines.stream().filter(l -> l.startsWith("# ")).toList();
+		assertEquals("# ready", status.get(0));
+		assertTrue(status.get(1).matches("# ok" + STATUS_TIME), status.get(1));
+		assertTrue(status.get(2).matches("# errors 1" + STATUS_TIME), status.get(2));
+		assertTrue(status.get(3).matches("# failed .*" + STATUS_TIME), status.get(3));
+		assertTrue(status.get(4).matches("# failed java.nio.file.NoSuchFileException: .*missing.fool" + STATUS_TIME), status.get(4));
+		assertTrue(status.get(5).matches("# failed access denied: ../outside.fool" + STATUS_TIME), status.get(5));
+		assertTrue(status.get(6).matches("# failed unsupported flag: --no-such-flag" + STATUS_TIME), status.get(6));
+		assertEquals("# failed unknown request: compile", status.get(7));
+		assertEquals("# failed unknown request: frobnicate x.fool", status.get(8));
+		assertTrue(status.get(9).matches("# requests 6 p50" + STATUS_TIME + " p90" + STATUS_TIME + " p99" + STATUS_TIME
+			+ " max" + STATUS_TIME + " declarations reused [0-9]+ compiled [0-9]+"), status.get(9));
+		assertEquals(10, status.size()); // nothing served after quit
+	}
+
+	@Test
+	void runPrintsProgramOutput() throws Exception {
+		String golden = Files.readString(GoldenOutputTest.GOLDEN.resolve("tail_calls.out"));
+		List<String> lines = serve("run src/test/resources/programs/tail_calls.fool --jit");
+		String output = String.join("\n", lines.subList(1, lines.size() - 2)) + "\n";
+		assertEquals(golden, output);
+		assertTrue(lines.get(lines.size() - 2).matches("# ok" + STATUS_TIME));
+		assertTrue(lines.get(lines.size() - 1).startsWith("# requests 1 ")); // stats at the end of stdin
+	}
+
+	@Test
+	void unchangedDeclarationsAreReused() throws Exception {
+		Path program = file("let fun f:int (x:int) x + 1; fun g:int (x:int) f(x) * 2; in print(g(1));");
+		List<String> lines = serve("run " + program, "run " + program, "stats");
+		assertEquals(List.of("4", "4"), lines.stream().filter(l -> !l.startsWith("#")).toList());
+		assertTrue(lines.get(lines.size() - 2).endsWith(" declarations reused 2 compiled 2"), lines.get(lines.size() - 2));
+	}
+
+	@Test
+	void deeplyNestedProgram() throws Exception {
+		Path deep = file("print(" + "(".repeat(20000) + "1" + ")".repeat(20000) + ");");
+		List<String> lines = serve("run " + deep);
+		assertEquals("1", lines.get(1));
+		assertTrue(lines.get(2).matches("# ok" + STATUS_TIME), lines.get(2));
+	}
+
+	// the lines of the responses to the requests
+	static List<String> serve(String... requests) throws IOException {
+		BufferedReader in = new BufferedReader(new StringReader(String.join("\n", requests) + "\n"));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new CompileServer().serve(in, new PrintStream(out, true));
+		return out.toString().lines().toList();
+	}
+
+	// a FOOL program in the project folder, as the server only compiles files in there
+	Path file(String source) throws IOException {
+		Path file = Files.createTempFile(Paths.get("build"), "server", ".fool");
+		files.add(file);
+		return Paths.get(".").toAbsolutePath().normalize().relativize(Files.writeString(file, source).toAbsolutePath());
+	}
+}
@@ -0,0 +1,105 @@
+package compiler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+import org.antlr.v4.runtime.*;
+import org.junit.jupiter.api.Test;
+
+import compiler.AST.*;
+import compiler.lib.*;
+
+/**
+ * Checks that the code generated reusing the declarations kept by a {@link DeclarationCache} is the
+ * code of a compilation from scratch, and that an edit recompiles the declarations depending on the
+ * edited one: functions inlining an edited function, and methods calls devirtualized on an edited class.
+ */
+class DeclarationCacheTest {
+
+	static final String PROGRAM = """
+		let
+		  class Account (balance:int) {
+		    fun get:int() balance;
+		  }
+		  fun twice:int (x:int) x + x;
+		  fun quadruple:int (x:int) twice(twice(x));
+		  fun total:int (a:Account) a.get() + 1;
+		  fun square:int (x:int) x * x;
+		in print(quadruple(total(new Account(square(3)))));
+		""";
+	static final int ACCOUNT = 0, TWICE = 1, QUADRUPLE = 2, TOTAL = 3, SQUARE = 4; // positions of the declarations
+
+	final DeclarationCache cache = new DeclarationCache();
+	List<DeclarationCache.Declaration> declarations; // of the last compilation
+
+	@Test
+	void warmCompilationGeneratesTheSameCode() throws Exception {
+		String cold = compile(PROGRAM);
+		List<DeclarationCache.Declaration> coldDeclarations = declarations;
+		assertEquals(5, cache.compiled);
+		assertEquals(0, cache.reused);
+
+		String warm = compile(PROGRAM);
+		assertEquals(cold, warm);
+		assertEquals(coldDeclarations, declarations);
+		assertEquals(5, cache.compiled);
+		assertEquals(5, cache.reused);
+	}
+
+	@Test
+	void editedFunctionRecompilesItsInliningCallers() throws Exception {
+		compile(PROGRAM);
+		List<DeclarationCache.Declaration> before = declarations;
+		String edited = PROGRAM.replace("x + x;", "x + x + 0 + x;");
+		String warm = compile(edited);
+
+		assertNotSame(before.get(TWICE), declarations.get(TWICE));
+		assertNotSame(before.get(QUADRUPLE), declarations.get(QUADRUPLE)); // twice is inlined in quadruple
+		assertSame(before.get(ACCOUNT), declarations.get(ACCOUNT));
+		assertSame(before.get(TOTAL), declarations.get(TOTAL));
+		assertSame(before.get(SQUARE), declarations.get(SQUARE));
+		assertEquals(new DeclarationCacheTest().compile(edited), warm);
+	}
+
+	@Test
+	void editedClassRecompilesItsDevirtualizedUsers() throws Exception {
+		compile(PROGRAM);
+		List<DeclarationCache.Declaration> before = declarations;
+		String edited = PROGRAM.replace("fun get:int() balance;", "fun get:int() balance - 1;");
+		String warm = compile(edited);
+
+		assertNotSame(before.get(ACCOUNT), declarations.get(ACCOUNT));
+		assertNotSame(before.get(TOTAL), declarations.get(TOTAL)); // a.get() is devirtualized to Account.get
+		assertEquals(new DeclarationCacheTest().compile(edited), warm);
+	}
+
+	@Test
+	void editedWhitespaceReusesEveryDeclaration() throws Exception {
+		compile(PROGRAM);
+		List<DeclarationCache.Declaration> before = declarations;
+		compile(PROGRAM.replace("  fun ", "\n  /* edited */ fun "));
+		assertEquals(before, declarations);
+		assertEquals(5, cache.reused);
+	}
+
+	// assembly text of the code generated for a program, reusing the declarations of the cache
+	String compile(String source) throws Exception {
+		FOOLParser parser = new FOOLParser(new CommonTokenStream(new FOOLLexer(CharStreams.fromString(source))));
+		FOOLParser.ProgContext st = parser.prog();
+		Node ast = new ASTGenerationSTVisitor().visit(st);
+		SymbolTableASTVisitor symTableVisitor = new SymbolTableASTVisitor();
+		symTableVisitor.visit(ast);
+		assertEquals(0, parser.getNumberOfSyntaxErrors() + symTableVisitor.stErrors);
+		declarations = cache.declarations((FOOLParser.LetInProgContext) st.progbody(), (ProgLetInNode) ast, "");
+		CompilationContext context = new CompilationContext();
+		TypeCheckEASTVisitor typeCheckVisitor = new TypeCheckEASTVisitor(context);
+		typeCheckVisitor.declarations = declarations;
+		typeCheckVisitor.visit(ast);
+		assertEquals(0, context.typeErrors);
+		ast = new OptimizationASTVisitor().visit(new InliningASTVisitor().visit(ast));
+		CodeGenerationASTVisitor codeVisitor = new CodeGenerationASTVisitor(context);
+		codeVisitor.declarations = declarations;
+		return codeVisitor.visit(ast).toString();
+	}
+}
@@ -0,0 +1,107 @@
+package compiler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Runs the example programs (foolExamples) and the test programs (src/test/resources/programs)
+ * through {@link Test} in every compilation mode, comparing what they print with their golden output
+ * (src/test/resources/golden), i.e. the output of the original compiler without any optimization.
+ * The programs in src/test/resources/failing must fail (e.g. calling a method on null) after
+ * printing their golden output.
+ */
+class GoldenOutputTest {
+
+	static final Path EXAMPLES = Paths.get("foolExamples");
+	static final Path PROGRAMS = Paths.get("src/test/resources/programs");
+	static final Path FAILING = Paths.get("src/test/resources/failing");
+	static final Path GOLDEN = Paths.get("src/test/resources/golden");
+
+	// flags of each mode
+	static final Map<String,List<String>> MODES = new LinkedHashMap<>();
+	static {
+		MODES.put("default", List.of());
+		MODES.put("unoptimized", List.of("--no-opt", "--no-inline", "--no-devirt", "--no-tco", "--no-frame-cache", "--no-peephole", "--no-fuse"));
+		MODES.put("jit", List.of("--jit"));
+		MODES.put("register", List.of("--register"));
+		MODES.put("fixed-mem", List.of("--fixed-mem", "--mem-size=1000000")); // allocated upfront, large enough for tail_calls
+	}
+
+	static Stream<Arguments> programs() throws IOException {
+		return inEveryMode(programFiles(EXAMPLES, PROGRAMS));
+	}
+
+	static Stream<Arguments> failingPrograms() throws IOException {
+		return inEveryMode(programFiles(FAILING));
+	}
+
+	private static Stream<Arguments> inEveryMode(List<Path> programs) {
+		List<Arguments> arguments = new ArrayList<>();
+		for (Path program : programs)
+			for (String mode : MODES.keySet()) arguments.add(Arguments.of(name(program), mode, program));
+		return arguments.stream();
+	}
+
+	static List<Path> programFiles(Path... dirs) throws IOException {
+		List<Path> files = new ArrayList<>();
+		for (Path dir : dirs)
+			try (Stream<Path> list = Files.list(dir)) {
+				list.filter(p -> p.toString().endsWith(".fool")).sorted().forEach(files::add);
+			}
+		return files;
+	}
+
+	static String name(Path program) {
+		String file = program.getFileName().toString();
+		return file.substring(0, file.length() - ".fool".length());
+	}
+
+	@ParameterizedTest(name = "{0} ({1})")
+	@MethodSource("programs")
+	void output(String name, String mode, Path program) throws Exception {
+		String expected = Files.readString(GOLDEN.resolve(name + ".out"));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		run(program, MODES.get(mode), out);
+		assertEquals(expected, programOutput(out.toString(StandardCharsets.UTF_8)));
+	}
+
+	@ParameterizedTest(name = "{0} ({1})")
+	@MethodSource("failingPrograms")
+	void failure(String name, String mode, Path program) throws Exception {
+		String expected = Files.readString(GOLDEN.resolve(name + ".out"));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		assertThrows(RuntimeException.class, () -> run(program, MODES.get(mode), out));
+		assertEquals(expected, programOutput(out.toString(StandardCharsets.UTF_8)));
+	}
+
+	/**
+	 * Compiles and runs a program with the given flags, writing the compiler and program output to out.
+	 */
+	static void run(Path program, List<String> flags, OutputStream out) throws Exception {
+		List<String> args = new ArrayList<>(List.of(program.toString()));
+		args.addAll(flags);
+		PrintStream stdout = System.out;
+		System.setOut(new PrintStream(out, true, StandardCharsets.UTF_8));
+		try {
+			Test.main(args.toArray(new String[0]));
+		} finally {
+			System.setOut(stdout);
+		}
+	}
+
+	// what follows the "Running ... via ... Virtual Machine." line of the compiler output
+	static String programOutput(String output) {
+		int running = output.lastIndexOf("\nRunning ");
+		assertTrue(running >= 0, "the program did not run:\n" + output);
+		return output.substring(output.indexOf('\n', running+1) + 1);
+	}
+}
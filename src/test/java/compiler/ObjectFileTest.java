@@ -0,0 +1,96 @@
+package compiler;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.*;
+import java.util.*;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import compiler.svm.*;
+
+/**
+ * Checks that {@link ObjectFile} reads back the code and labels it writes, and that a corrupted
+ * object file is rejected with an IOException (so that {@link CompileCache} deletes the entry).
+ */
+class ObjectFileTest {
+
+	static final int[] CODE = {1, -2, 3, Integer.MAX_VALUE, Integer.MIN_VALUE, 0};
+	static final Map<String,Integer> LABELS = Map.of("main", 0, "function0", 3, "àè", 5);
+
+	// offsets in the object file written for CODE and LABELS
+	static final int LENGTH = 12, COUNT = 16 + CODE.length * 4, FIRST_NAME_LENGTH = COUNT + 8;
+
+	@Test
+	void roundTrip(@TempDir Path dir) throws IOException {
+		Path file = dir.resolve("code.svm");
+		ObjectFile.write(file, Arrays.copyOf(CODE, 100), CODE.length, LABELS);
+		ObjectFile object = ObjectFile.read(file);
+		assertArrayEquals(CODE, object.code);
+		assertEquals(LABELS, object.labels);
+	}
+
+	@Test
+	void roundTripWithoutLabels(@TempDir Path dir) throws IOException {
+		Path file = dir.resolve("code.svm");
+		ObjectFile.write(file, CODE, CODE.length, null);
+		ObjectFile object = ObjectFile.read(file);
+		assertArrayEquals(CODE, object.code);
+		assertTrue(object.labels.isEmpty());
+	}
+
+	@ParameterizedTest
+	@ValueSource(ints = {-1, -5, Integer.MIN_VALUE, 1000, Integer.MAX_VALUE})
+	void rejectsCorruptedNameLength(int length, @TempDir Path dir) throws IOException {
+		assertThrows(IOException.class, () -> ObjectFile.read(corrupted(dir, FIRST_NAME_LENGTH, length)));
+	}
+
+	@ParameterizedTest
+	@ValueSource(ints = {-1, Integer.MIN_VALUE, 4, Integer.MAX_VALUE})
+	void rejectsCorruptedLabelCount(int count, @TempDir Path dir) throws IOException {
+		assertThrows(IOException.class, () -> ObjectFile.read(corrupted(dir, COUNT, count)));
+	}
+
+	@ParameterizedTest
+	@ValueSource(ints = {-1, Integer.MIN_VALUE, 1000, Integer.MAX_VALUE})
+	void rejectsCorruptedCodeLength(int length, @TempDir Path dir) throws IOException {
+		assertThrows(IOException.class, () -> ObjectFile.read(corrupted(dir, LENGTH, length)));
+	}
+
+	@Test
+	void rejectsOtherVersionsAndTruncatedFiles(@TempDir Path dir) throws IOException {
+		assertThrows(IOException.class, () -> ObjectFile.read(corrupted(dir, 0, 0)));
+		assertThrows(IOException.class, () -> ObjectFile.read(corrupted(dir, 4, ObjectFile.VERSION - 1)));
+		Path file = corrupted(dir, 0, ObjectFile.MAGIC);
+		byte[] bytes = Files.readAllBytes(file);
+		Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+		assertThrows(IOException.class, () -> ObjectFile.read(file));
+	}
+
+	@Test
+	void corruptedCacheEntryIsDeleted(@TempDir Path dir) throws IOException {
+		CompileCache cache = new CompileCache(dir, CompileCache.DEFAULT_MAX_SIZE);
+		String key = cache.key(new byte[0], "");
+		cache.put(key, CODE, CODE.length, LABELS);
+		Path entry = dir.resolve(key + ".svm");
+		ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(entry));
+		Files.write(entry, bytes.putInt(FIRST_NAME_LENGTH, -5).array());
+		assertNull(cache.get(key));
+		assertFalse(Files.exists(entry));
+		assertEquals(0, cache.hits());
+		assertEquals(1, cache.misses());
+	}
+
+	// an object file for CODE and LABELS with the int at the given offset replaced
+	private static Path corrupted(Path dir, int offset, int value) throws IOException {
+		Path file = dir.resolve("corrupted.svm");
+		ObjectFile.write(file, CODE, CODE.length, LABELS);
+		ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(file));
+		return Files.write(file, bytes.putInt(offset, value).array());
+	}
+}